@@ -0,0 +1,22 @@
+#!/bin/sh
+# Compiles the aqua sources and runs one of the load and recovery checks in aqua.blatt1.bench
+# headless. The micro benchmarks are JMH benchmarks in the bench module (see bench/pom.xml).
+#
+#   ./bench.sh                                  runs HandoffLossCheck
+#   ./bench.sh HandoffLossCheck 5 60            runs it with arguments
+#   ./bench.sh JoinStormBenchmark
+#
+# Needs a JDK 21 javac/java on the PATH (or JAVA_HOME set).
+set -e
+cd "$(dirname "$0")"
+JAVA_BIN=${JAVA_HOME:+$JAVA_HOME/bin/}
+OUT=${TMPDIR:-/tmp}/aqua-bench
+
+rm -rf "$OUT"
+mkdir -p "$OUT/aqua/blatt1/client/resources"
+"${JAVA_BIN}javac" --release 21 -nowarn -cp messaging.jar -d "$OUT" $(find blatt1 -name '*.java')
+cp blatt1/client/resources/*.png "$OUT/aqua/blatt1/client/resources/"
+
+BENCHMARK=${1:-HandoffLossCheck}
+[ $# -gt 0 ] && shift
+exec "${JAVA_BIN}java" -Djava.awt.headless=true -cp "$OUT:messaging.jar" "aqua.blatt1.bench.$BENCHMARK" "$@"
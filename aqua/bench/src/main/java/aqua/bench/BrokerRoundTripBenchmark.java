@@ -0,0 +1,84 @@
+package aqua.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import messaging.Message;
+import aqua.blatt1.broker.Broker;
+import aqua.blatt1.broker.PoisonPill;
+import aqua.blatt1.common.ChannelEndpoint;
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.Properties;
+import aqua.blatt1.common.msgtypes.HandoffRequest;
+import aqua.blatt1.common.msgtypes.RegisterRequest;
+import aqua.blatt1.common.msgtypes.RegisterResponse;
+
+/*
+ * Registers a single client, whose left and right neighbour is itself, with an in-process broker
+ * and bounces HandoffRequests off it: every round trip is one receive, dispatch and send in the
+ * broker. Sampled, so JMH reports the latency percentiles. No other broker may be running on
+ * Properties.PORT.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class BrokerRoundTripBenchmark {
+	private Thread broker;
+	private InetSocketAddress brokerAddress;
+	private ChannelEndpoint client;
+	private HandoffRequest handoff;
+
+	@Setup
+	public void setUp() throws InterruptedException {
+		// the broker logs every handoff; keep that out of the measurement
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		broker = new Thread(() -> Broker.main(new String[0]), "broker");
+		broker.setDaemon(true);
+		broker.start();
+		Thread.sleep(500);
+
+		brokerAddress = new InetSocketAddress(Properties.HOST, Properties.PORT);
+		client = new ChannelEndpoint();
+		client.send(brokerAddress, new RegisterRequest());
+		Message msg;
+		do {
+			msg = client.blockingReceive();
+		} while (!(msg.getPayload() instanceof RegisterResponse));
+		handoff = new HandoffRequest(new FishModel("fish1@client1", 0, 100, Direction.LEFT));
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		client.send(brokerAddress, new PoisonPill());
+		broker.join(1000);
+		client.close();
+	}
+
+	@Benchmark
+	public Object roundTrip() {
+		client.send(brokerAddress, handoff);
+		Message reply;
+		do {
+			reply = client.blockingReceive();
+		} while (reply == null || !(reply.getPayload() instanceof HandoffRequest));
+		return reply.getPayload();
+	}
+}
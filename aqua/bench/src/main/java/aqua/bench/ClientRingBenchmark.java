@@ -0,0 +1,87 @@
+package aqua.bench;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aqua.blatt1.broker.ClientCollection;
+import aqua.blatt1.broker.ClientRing;
+
+/*
+ * Compares ClientCollection (linear scans) with ClientRing (hash indexed ring) for the operations
+ * the broker performs: the handoff path (lookup by address plus neighbour query) and a leave/join
+ * pair.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientRingBenchmark {
+	@Param({ "10", "1000", "100000" })
+	public int size;
+
+	private InetSocketAddress[] addrs;
+	private ClientCollection<InetSocketAddress> collection;
+	private ClientRing<InetSocketAddress> ring;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		addrs = new InetSocketAddress[size];
+		collection = new ClientCollection<>();
+		ring = new ClientRing<>();
+		for (int i = 0; i < size; i++) {
+			addrs[i] = InetSocketAddress.createUnresolved("tank" + (i / 60000), i % 60000 + 1);
+			collection.add("client" + i, addrs[i]);
+			ring.add("client" + i, addrs[i]);
+		}
+	}
+
+	private int nextSlot() {
+		next = next + 1 == size ? 0 : next + 1;
+		return next;
+	}
+
+	@Benchmark
+	public int collectionHandoff() {
+		int index = collection.indexOf(addrs[nextSlot()]);
+		return collection.getLeftNeighorOf(index).getPort() + collection.getRightNeighorOf(index).getPort();
+	}
+
+	@Benchmark
+	public int collectionLeaveJoin() {
+		int slot = nextSlot();
+		String id = "client" + slot;
+		collection.remove(collection.indexOf(id));
+		collection.add(id, addrs[slot]);
+		return collection.size();
+	}
+
+	@Benchmark
+	public int ringHandoff() {
+		InetSocketAddress addr = addrs[nextSlot()];
+		return ring.getLeftNeighorOf(addr).getPort() + ring.getRightNeighorOf(addr).getPort();
+	}
+
+	@Benchmark
+	public int ringLeaveJoin() {
+		int slot = nextSlot();
+		String id = "client" + slot;
+		ring.remove(id);
+		ring.add(id, addrs[slot]);
+		return ring.size();
+	}
+}
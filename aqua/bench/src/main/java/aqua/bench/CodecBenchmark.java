@@ -0,0 +1,107 @@
+package aqua.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.msgtypes.*;
+
+/*
+ * Encode+decode throughput of MessageCodec against default Java serialization per message type.
+ * The setup prints both encoded sizes; run with -prof gc for the allocation per message.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+	@Param({ "RegisterRequest", "RegisterResponse", "DeregisterRequest", "HandoffRequest", "HandoffBatch",
+			"NeighbourUpdate", "Token" })
+	public String message;
+
+	private Serializable payload;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+
+	private static Serializable payload(String message) {
+		InetSocketAddress neighbour = new InetSocketAddress("127.0.0.1", 50123);
+		List<FishModel> batch = new ArrayList<>();
+		for (int i = 0; i < 16; i++)
+			batch.add(new FishModel("fish" + i + "@client42", 500, 10 * i, Direction.RIGHT));
+		return switch (message) {
+			case "RegisterRequest" -> new RegisterRequest();
+			case "RegisterResponse" -> new RegisterResponse("client42");
+			case "DeregisterRequest" -> new DeregisterRequest("client42");
+			case "HandoffRequest" -> new HandoffRequest(new FishModel("fish17@client42", 500, 120, Direction.RIGHT));
+			case "HandoffBatch" -> new HandoffBatch(batch);
+			case "NeighbourUpdate" -> new NeighbourUpdate(1, 1, neighbour, neighbour, List.of());
+			case "Token" -> new Token(0, 0, 0);
+			default -> throw new IllegalArgumentException("Unknown message " + message);
+		};
+	}
+
+	private static byte[] serialize(Serializable payload) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(payload);
+			return bos.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static Object deserialize(byte[] data) {
+		try {
+			return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		payload = payload(message);
+		buffer.clear();
+		MessageCodec.encode(payload, buffer);
+		System.out.printf("%s: %d B serialized, %d B encoded%n", message, serialize(payload).length,
+				buffer.position());
+	}
+
+	@Benchmark
+	public int serialization() {
+		byte[] data = serialize(payload);
+		return data.length + deserialize(data).hashCode();
+	}
+
+	@Benchmark
+	public int codec() {
+		buffer.clear();
+		MessageCodec.encode(payload, buffer);
+		buffer.flip();
+		return buffer.limit() + MessageCodec.decode(buffer).hashCode();
+	}
+}
@@ -0,0 +1,86 @@
+package aqua.bench;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aqua.blatt1.client.FishStore;
+import aqua.blatt1.client.TankModel;
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+/*
+ * One tick of the update loop of TankModel.updateFishies() for a tank without token, with the
+ * previous fish storage (a concurrent set of FishModel objects) and the structure-of-arrays
+ * FishStore. Run with -prof gc for the bytes allocated per tick.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FishStoreBenchmark {
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	private Set<FishModel> set;
+	private FishStore store;
+
+	@Setup
+	public void setUp() {
+		Random rand = new Random(42);
+		set = Collections.newSetFromMap(new ConcurrentHashMap<FishModel, Boolean>());
+		store = new FishStore();
+		for (int i = 0; i < size; i++) {
+			int x = rand.nextInt(TankModel.WIDTH - FishModel.getXSize());
+			int y = rand.nextInt(TankModel.HEIGHT - FishModel.getYSize());
+			Direction direction = rand.nextBoolean() ? Direction.LEFT : Direction.RIGHT;
+			set.add(new FishModel("fish" + i + "@bench", x, y, direction));
+			store.add("fish" + i + "@bench", x, y, direction, false);
+		}
+	}
+
+	@Benchmark
+	public int set() {
+		for (Iterator<FishModel> it = set.iterator(); it.hasNext();) {
+			FishModel fish = it.next();
+			fish.update();
+			if (fish.hitsEdge())
+				fish.reverse();
+			if (fish.disappears())
+				it.remove();
+		}
+		return set.size();
+	}
+
+	@Benchmark
+	public int store() {
+		for (int f = 0; f < store.size();) {
+			store.update(f);
+			if (store.hitsEdge(f))
+				store.reverse(f);
+			if (store.disappears(f)) {
+				store.removeAt(f);
+				continue;
+			}
+			f++;
+		}
+		return store.size();
+	}
+}
@@ -0,0 +1,82 @@
+package aqua.bench;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aqua.blatt1.client.FishStore;
+import aqua.blatt1.client.ParallelFishUpdater;
+import aqua.blatt1.client.TankModel;
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+/*
+ * Tick time of the fork-join fish update for growing pool sizes, against the sequential FishStore
+ * loop (parallelism 0). Fishies reverse at the edges, like in a tank without token.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelUpdateBenchmark {
+	@Param({ "1000000" })
+	public int size;
+
+	@Param({ "0", "1", "2", "4", "8" })
+	public int parallelism;
+
+	private FishStore fishies;
+	private ForkJoinPool pool;
+	private ParallelFishUpdater updater;
+
+	@Setup
+	public void setUp() {
+		Random rand = new Random(42);
+		fishies = new FishStore();
+		for (int i = 0; i < size; i++)
+			fishies.add("fish" + i + "@bench", rand.nextInt(TankModel.WIDTH - FishModel.getXSize()),
+					rand.nextInt(TankModel.HEIGHT - FishModel.getYSize()),
+					rand.nextBoolean() ? Direction.LEFT : Direction.RIGHT, false);
+		if (parallelism > 0) {
+			pool = new ForkJoinPool(parallelism);
+			updater = new ParallelFishUpdater(pool);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	@Benchmark
+	public int tick() {
+		if (updater == null) {
+			for (int i = 0; i < fishies.size(); i++) {
+				fishies.update(i);
+				if (fishies.hitsEdge(i))
+					fishies.reverse(i);
+			}
+			return fishies.size();
+		}
+		updater.update(fishies);
+		for (int n = 0; n < updater.getHitCount(); n++)
+			fishies.reverse(updater.getHit(n));
+		return fishies.size();
+	}
+}
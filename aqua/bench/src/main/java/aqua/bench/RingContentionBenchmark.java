@@ -0,0 +1,118 @@
+package aqua.bench;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aqua.blatt1.broker.ClientRing;
+import aqua.blatt1.broker.RingSnapshot;
+
+/*
+ * Handoff routing throughput of four reader threads while one writer thread churns the membership
+ * (leave + join), comparing the old read/write lock with copy-on-write snapshots. The "quiet"
+ * group routes without a writer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class RingContentionBenchmark {
+	@Param({ "1000" })
+	public int members;
+
+	@Param({ "lock", "snapshot" })
+	public String router;
+
+	private InetSocketAddress[] addresses;
+	private ClientRing<InetSocketAddress> clients;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private AtomicReference<RingSnapshot<InetSocketAddress>> ring;
+	private boolean snapshots;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Setup
+	public void setUp() {
+		addresses = new InetSocketAddress[members];
+		clients = new ClientRing<>();
+		for (int i = 0; i < members; i++) {
+			addresses[i] = InetSocketAddress.createUnresolved("tank", i + 1);
+			clients.add("client" + i, addresses[i]);
+		}
+		ring = new AtomicReference<>(clients.snapshot(0));
+		snapshots = router.equals("snapshot");
+	}
+
+	private int route(Cursor cursor) {
+		InetSocketAddress sender = addresses[cursor.next++ % members];
+		if (snapshots)
+			return ring.get().getLeftNeighorOf(sender).getPort();
+		lock.readLock().lock();
+		try {
+			return clients.getLeftNeighorOf(sender).getPort();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void churn(Cursor cursor) {
+		int slot = cursor.next++ % members;
+		String id = "client" + slot;
+		if (snapshots) {
+			// single writer, so no lock is needed around the ring itself
+			clients.remove(id);
+			clients.add(id, addresses[slot]);
+			ring.set(clients.snapshot(ring.get().getVersion() + 1));
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			clients.remove(id);
+			clients.add(id, addresses[slot]);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(4)
+	public int churnRoute(Cursor cursor) {
+		return route(cursor);
+	}
+
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(1)
+	public void churnWrite(Cursor cursor) {
+		churn(cursor);
+	}
+
+	@Benchmark
+	@Group("quiet")
+	@GroupThreads(4)
+	public int quietRoute(Cursor cursor) {
+		return route(cursor);
+	}
+}
@@ -0,0 +1,78 @@
+package aqua.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aqua.blatt1.client.ClientCommunicator;
+import aqua.blatt1.client.TankModel;
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+/*
+ * The simulation hot path: one fish step, and one tick of a tank without token, which moves every
+ * fish and reverses it at the edges.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class TankBenchmark {
+	/*
+	 * Exposes the protected tick and fish set of TankModel to the benchmark.
+	 */
+	private static final class BenchTank extends TankModel {
+		BenchTank(int fishCount) {
+			super(new ClientCommunicator().newClientForwarder());
+			Random rand = new Random(42);
+			for (int i = 0; i < fishCount; i++)
+				fishies.add(new FishModel("fish" + i + "@bench", rand.nextInt(WIDTH - FishModel.getXSize()),
+						rand.nextInt(HEIGHT - FishModel.getYSize()), rand.nextBoolean() ? Direction.LEFT
+								: Direction.RIGHT));
+		}
+
+		@Override
+		protected void tick() {
+			super.tick();
+		}
+	}
+
+	@Param({ "5", "100", "1000" })
+	public int fishCount;
+
+	private BenchTank tank;
+	private FishModel fish;
+
+	@Setup
+	public void setUp() {
+		tank = new BenchTank(fishCount);
+		fish = new FishModel("fish1@client1", 0, 100, Direction.RIGHT);
+	}
+
+	@Benchmark
+	public int fishStep() {
+		fish.update();
+		if (fish.hitsEdge())
+			fish.reverse();
+		return fish.disappears() ? 1 : fish.getX();
+	}
+
+	@Benchmark
+	public long tick() {
+		tank.tick();
+		return tank.getTickCount();
+	}
+}
@@ -0,0 +1,55 @@
+package aqua.blatt1.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import aqua.blatt1.broker.Dispatcher;
+import aqua.blatt1.broker.StripedExecutor;
+import aqua.blatt1.broker.VirtualThreadDispatcher;
+
+/*
+ * Feeds the same synthetic broker load into the platform-thread (striped lanes) and the
+ * virtual-thread dispatcher. Every task blocks for a few datagram sends, like register() does,
+ * and records its dispatch latency, i.e. the time from submission until it starts running. Tasks
+ * are submitted as control tasks, so none are shed.
+ *
+ * Usage: DispatchBenchmark [tasks] [senders] [blockMicrosPerTask]
+ */
+public class DispatchBenchmark {
+
+	private static void run(String name, Dispatcher dispatcher, int tasks, int senders, long blockNanos)
+			throws InterruptedException {
+		long[] latencies = new long[tasks];
+		CountDownLatch done = new CountDownLatch(tasks);
+		long start = System.nanoTime();
+		for (int i = 0; i < tasks; i++) {
+			final int task = i;
+			final long submitted = System.nanoTime();
+			dispatcher.execute(i % senders, Dispatcher.Priority.CONTROL, () -> {
+				latencies[task] = System.nanoTime() - submitted;
+				LockSupport.parkNanos(blockNanos);
+				done.countDown();
+			});
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		dispatcher.close();
+
+		Arrays.sort(latencies);
+		System.out.printf("%-28s %,12.0f tasks/s | dispatch p50 %,9.1f us | p99 %,9.1f us%n", name,
+				tasks * 1e9 / elapsed, latencies[tasks / 2] / 1e3, latencies[(int) (tasks * 0.99)] / 1e3);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+		int senders = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		long blockNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 200);
+
+		run("platform (8 striped lanes)", new StripedExecutor(8, 1024, Dispatcher.OverloadPolicy.NACK, task -> {
+		}), tasks, senders, blockNanos);
+		run("virtual (max 1024 in flight)", new VirtualThreadDispatcher(1024, task -> {
+		}), tasks, senders, blockNanos);
+	}
+}
@@ -0,0 +1,137 @@
+package aqua.blatt1.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import aqua.blatt1.broker.Broker;
+import aqua.blatt1.client.ClientCommunicator;
+import aqua.blatt1.client.TankModel;
+import aqua.blatt1.common.ChannelEndpoint;
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.LossyTransport;
+import aqua.blatt1.common.msgtypes.HandoffAck;
+import aqua.blatt1.common.msgtypes.ReliableMessage;
+
+/*
+ * Starts an in-process broker and a ring of tanks whose handoff traffic goes through a
+ * LossyTransport, and checks that no fish is lost or duplicated. Every SAMPLE_MILLIS all tanks
+ * are scanned: a fish present in two tanks at once (leaving out handed off ones) is a duplicate, a
+ * fish not seen during the last QUIET_MILLIS of the run is lost. Exits with status 1 on failure.
+ * No other broker may be running on Properties.PORT.
+ *
+ * Usage: HandoffLossCheck [tanks] [seconds] [fishPerTank] [drop] [duplicate] [reorder]
+ */
+public class HandoffLossCheck {
+	private static final long SAMPLE_MILLIS = 50;
+	// longer than a handoff can take with MAX_RTO_NANOS backoff at the default drop rate
+	private static final long QUIET_MILLIS = 8000;
+
+	/*
+	 * Exposes the protected run loop of TankModel to the check.
+	 */
+	private static final class CheckTank extends TankModel {
+		CheckTank(ClientCommunicator communicator) {
+			super(communicator.newClientForwarder());
+		}
+
+		@Override
+		protected void run() {
+			super.run();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int tankCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int fishPerTank = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		double drop = args.length > 3 ? Double.parseDouble(args[3]) : 0.2;
+		double duplicate = args.length > 4 ? Double.parseDouble(args[4]) : 0.1;
+		double reorder = args.length > 5 ? Double.parseDouble(args[5]) : 0.2;
+
+		PrintStream out = System.out;
+		// broker and tanks log every handoff and token, also after the report; keep that out of it
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Thread broker = new Thread(() -> Broker.main(new String[0]), "broker");
+		broker.setDaemon(true);
+		broker.start();
+		Thread.sleep(500);
+
+		List<CheckTank> tanks = new ArrayList<>();
+		for (int i = 0; i < tankCount; i++) {
+			ClientCommunicator communicator = new ClientCommunicator(new LossyTransport(new ChannelEndpoint(), drop,
+					duplicate, reorder, payload -> payload instanceof ReliableMessage || payload instanceof HandoffAck));
+			CheckTank tank = new CheckTank(communicator);
+			ClientCommunicator.ClientReceiver receiver = communicator.newClientReceiver(tank);
+			receiver.setDaemon(true);
+			receiver.start();
+			Thread thread = new Thread(tank::run, "tank-" + i);
+			thread.setDaemon(true);
+			thread.start();
+			tanks.add(tank);
+		}
+		long registerDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		for (CheckTank tank : tanks)
+			while (tank.getId() == null && System.nanoTime() < registerDeadline)
+				Thread.sleep(10);
+
+		Random rand = new Random(42);
+		Set<String> created = new HashSet<>();
+		for (CheckTank tank : tanks) {
+			for (int f = 1; f < fishPerTank; f++)
+				tank.newFish(rand.nextInt(TankModel.WIDTH), rand.nextInt(TankModel.HEIGHT));
+			for (FishModel fish : tank)
+				created.add(fish.getId());
+		}
+
+		Map<String, Long> lastSeen = new HashMap<>();
+		Set<String> duplicated = new HashSet<>();
+		Set<String> unknown = new HashSet<>();
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long samples = 0;
+		while (System.nanoTime() < end) {
+			Thread.sleep(SAMPLE_MILLIS);
+			long now = System.nanoTime();
+			Set<String> seen = new HashSet<>();
+			for (CheckTank tank : tanks) {
+				for (FishModel fish : tank) {
+					if (FishModel.isHandedOff(fish.getX(), fish.getDirection()))
+						continue;
+					if (!seen.add(fish.getId()))
+						duplicated.add(fish.getId());
+					if (!created.contains(fish.getId()))
+						unknown.add(fish.getId());
+					lastSeen.put(fish.getId(), now);
+				}
+			}
+			samples++;
+		}
+		long quietSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS);
+		List<String> lost = new ArrayList<>();
+		for (String id : created)
+			if (lastSeen.getOrDefault(id, start) < quietSince)
+				lost.add(id);
+
+		long handoffs = 0;
+		for (CheckTank tank : tanks)
+			handoffs += tank.getHandoffCount();
+		for (CheckTank tank : tanks)
+			tank.finish();
+		out.printf("%d tanks, %d fishies, %.0f%% dropped, %.0f%% duplicated, %.0f%% reordered%n", tankCount,
+				created.size(), drop * 100, duplicate * 100, reorder * 100);
+		out.printf("  %,d handoffs in %d s, %,d samples%n", handoffs, seconds, samples);
+		out.printf("  lost %s, duplicated %s, unknown %s%n", lost, duplicated, unknown);
+		boolean passed = !created.isEmpty() && lost.isEmpty() && duplicated.isEmpty() && unknown.isEmpty();
+		out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+}
@@ -0,0 +1,87 @@
+package aqua.blatt1.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import messaging.Message;
+import aqua.blatt1.broker.Broker;
+import aqua.blatt1.broker.PoisonPill;
+import aqua.blatt1.common.ChannelEndpoint;
+import aqua.blatt1.common.Properties;
+import aqua.blatt1.common.msgtypes.NeighbourUpdate;
+import aqua.blatt1.common.msgtypes.RegisterRequest;
+import aqua.blatt1.common.msgtypes.RegisterResponse;
+
+/*
+ * Starts an in-process broker and lets many tanks register at once. Reports how long it takes
+ * until every tank got its RegisterResponse and how many neighbour updates the tanks received,
+ * including the ones that arrived after a newer epoch. Compare runs with
+ * -Daqua.broker.membershipBatch=1 (nearly every join published on its own) and the default window.
+ * No other broker may be running on Properties.PORT.
+ *
+ * Usage: JoinStormBenchmark [tanks]
+ */
+public class JoinStormBenchmark {
+	private static final long TIMEOUT_MILLIS = 10_000;
+
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int tanks = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+		PrintStream out = System.out;
+		// the broker logs every injected token; keep that out of the measurement
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Thread broker = new Thread(() -> Broker.main(new String[0]), "broker");
+		broker.setDaemon(true);
+		broker.start();
+		Thread.sleep(500);
+
+		InetSocketAddress brokerAddress = new InetSocketAddress(Properties.HOST, Properties.PORT);
+		List<ChannelEndpoint> endpoints = new ArrayList<>();
+		for (int i = 0; i < tanks; i++)
+			endpoints.add(new ChannelEndpoint());
+		boolean[] registered = new boolean[tanks];
+		long[] epochs = new long[tanks];
+		int responses = 0, updates = 0, stale = 0;
+
+		long start = System.nanoTime();
+		for (ChannelEndpoint endpoint : endpoints)
+			endpoint.send(brokerAddress, new RegisterRequest());
+		long deadline = start + TIMEOUT_MILLIS * 1_000_000;
+		long elapsed = 0;
+		while (responses < tanks && System.nanoTime() < deadline) {
+			boolean idle = true;
+			for (int i = 0; i < tanks; i++) {
+				Message msg;
+				while ((msg = endpoints.get(i).nonBlockingReceive()) != null) {
+					idle = false;
+					if (msg.getPayload() instanceof NeighbourUpdate u) {
+						updates++;
+						if (u.getEpoch() <= epochs[i])
+							stale++;
+						epochs[i] = Math.max(epochs[i], u.getEpoch());
+					} else if (msg.getPayload() instanceof RegisterResponse && !registered[i]) {
+						registered[i] = true;
+						responses++;
+						elapsed = System.nanoTime() - start;
+					}
+				}
+			}
+			if (idle)
+				Thread.onSpinWait();
+		}
+
+		endpoints.get(0).send(brokerAddress, new PoisonPill());
+		broker.join(1000);
+		System.setOut(out);
+		System.out.printf("batch window %d ms: %d of %d tanks registered in %,.1f ms (%,.0f joins/s)%n",
+				Properties.MEMBERSHIP_BATCH_MS, responses, tanks, elapsed / 1e6, responses * 1e9 / elapsed);
+		System.out.printf("  %,d neighbour updates (%.2f per tank), %,d stale%n", updates, (double) updates / tanks,
+				stale);
+		for (ChannelEndpoint endpoint : endpoints)
+			endpoint.close();
+	}
+}
@@ -0,0 +1,306 @@
+package aqua.blatt1.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import aqua.blatt1.broker.MembershipJournal;
+
+/*
+ * Simulates broker crashes against the MembershipJournal and checks that every recovery yields
+ * exactly the members (in ring order), client counter, membership epoch and token epoch of the last
+ * complete record. A random script of joins, leaves, rejoins under an old number and epoch changes
+ * is run while the journal files are copied after every record; each crash is then replayed in a
+ * fresh directory:
+ *
+ *   - process crash after every record
+ *   - log truncated at every record boundary
+ *   - an invalid type byte at every record boundary
+ *   - a torn record: fields and terminator written, type byte not yet
+ *   - crash after the snapshot replaced the old one but before the log was restarted, and before
+ *     the move with the new snapshot still in snapshot.tmp; appending must work afterwards
+ *   - process crash after every record of a small log that compacts by itself
+ *
+ * Record boundaries are where two consecutive copies of the log first differ, so the check does not
+ * depend on the record layout. Exits with status 1 on failure.
+ *
+ * Usage: JournalCrashCheck [records] [seed]
+ */
+public class JournalCrashCheck {
+	private static final int CAPACITY = 1 << 20;
+	// a few dozen records per log, so the script compacts several times
+	private static final int SMALL_CAPACITY = 1024;
+	private static final byte INVALID_TYPE = 0x7F;
+
+	/*
+	 * The state a recovered journal must report.
+	 */
+	private record Expected(List<Map.Entry<Integer, InetSocketAddress>> members, int counter,
+			long membershipEpoch, long tokenEpoch) {
+		static Expected of(Map<Integer, InetSocketAddress> members, int counter, long membershipEpoch,
+				long tokenEpoch) {
+			List<Map.Entry<Integer, InetSocketAddress>> entries = new ArrayList<>();
+			members.forEach((number, addr) -> entries.add(Map.entry(number, addr)));
+			return new Expected(entries, counter, membershipEpoch, tokenEpoch);
+		}
+
+		static Expected of(MembershipJournal.State state) {
+			return of(state.getMembers(), state.getCounter(), state.getMembershipEpoch(), state.getTokenEpoch());
+		}
+	}
+
+	/*
+	 * The journal files at one point in time; snapshot is null if there is none yet.
+	 */
+	private record Image(byte[] journal, byte[] snapshot) {
+	}
+
+	/*
+	 * Applies the same changes to the journal and to a plain model of what it should contain.
+	 */
+	private static final class Script {
+		private final MembershipJournal journal;
+		private final Random rand;
+		private final Map<Integer, InetSocketAddress> members = new LinkedHashMap<>();
+		private final List<Integer> left = new ArrayList<>();
+		private int counter;
+		private long membershipEpoch;
+		private long tokenEpoch;
+
+		Script(MembershipJournal journal, Random rand) {
+			this.journal = journal;
+			this.rand = rand;
+		}
+
+		Expected expected() {
+			return Expected.of(members, counter, membershipEpoch, tokenEpoch);
+		}
+
+		/*
+		 * Appends exactly one record.
+		 */
+		void step() throws UnknownHostException {
+			int choice = rand.nextInt(10);
+			if (choice < 4 || members.isEmpty()) {
+				join(++counter);
+			} else if (choice < 6) {
+				List<Integer> numbers = new ArrayList<>(members.keySet());
+				int number = numbers.get(rand.nextInt(numbers.size()));
+				members.remove(number);
+				left.add(number);
+				journal.left(number);
+			} else if (choice < 7 && !left.isEmpty()) {
+				// readmitted under its old number
+				join(left.remove(rand.nextInt(left.size())));
+			} else if (choice < 9) {
+				journal.membershipEpoch(++membershipEpoch);
+			} else {
+				tokenEpoch += 1 + rand.nextInt(3);
+				journal.tokenEpoch(tokenEpoch);
+			}
+		}
+
+		private void join(int number) throws UnknownHostException {
+			InetSocketAddress addr = address(number, rand.nextBoolean());
+			members.put(number, addr);
+			journal.joined(number, addr);
+		}
+	}
+
+	private final List<String> failures = new ArrayList<>();
+	private int checks;
+
+	private static InetSocketAddress address(int i, boolean ipv6) throws UnknownHostException {
+		byte[] ip = new byte[ipv6 ? 16 : 4];
+		ip[0] = ipv6 ? (byte) 0xfd : 10;
+		ip[ip.length - 2] = (byte) (i >> 8);
+		ip[ip.length - 1] = (byte) i;
+		return new InetSocketAddress(InetAddress.getByAddress(ip), 40000 + i);
+	}
+
+	private static Image copy(Path directory) throws IOException {
+		Path snapshot = directory.resolve("snapshot");
+		return new Image(Files.readAllBytes(directory.resolve("journal")),
+				Files.exists(snapshot) ? Files.readAllBytes(snapshot) : null);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	/*
+	 * Recovers from the given files in a fresh directory and compares the result. Returns the
+	 * directory for further appends, or null after a failure.
+	 */
+	private Path recover(String name, Image files, byte[] snapshotTmp, int capacity, Expected expected)
+			throws IOException {
+		checks++;
+		Path directory = Files.createTempDirectory("aqua-crash");
+		Files.write(directory.resolve("journal"), files.journal());
+		if (files.snapshot() != null)
+			Files.write(directory.resolve("snapshot"), files.snapshot());
+		if (snapshotTmp != null)
+			Files.write(directory.resolve("snapshot.tmp"), snapshotTmp);
+		Expected recovered;
+		try (MembershipJournal journal = MembershipJournal.open(directory, capacity)) {
+			recovered = Expected.of(journal.getState());
+		} catch (RuntimeException e) {
+			failures.add(name + ": " + e);
+			delete(directory);
+			return null;
+		}
+		if (!recovered.equals(expected)) {
+			failures.add(name + ": recovered " + recovered + ", expected " + expected);
+			delete(directory);
+			return null;
+		}
+		return directory;
+	}
+
+	private void check(String name, Image files, byte[] snapshotTmp, int capacity, Expected expected)
+			throws IOException {
+		Path directory = recover(name, files, snapshotTmp, capacity, expected);
+		if (directory != null)
+			delete(directory);
+	}
+
+	/*
+	 * Runs the script on a log that never compacts and replays a crash at every record boundary.
+	 */
+	private void boundaries(int records, long seed) throws IOException {
+		Path directory = Files.createTempDirectory("aqua-crash");
+		List<byte[]> logs = new ArrayList<>();
+		List<Expected> expected = new ArrayList<>();
+		try (MembershipJournal journal = MembershipJournal.open(directory, CAPACITY)) {
+			Script script = new Script(journal, new Random(seed));
+			logs.add(copy(directory).journal());
+			expected.add(script.expected());
+			for (int k = 0; k < records; k++) {
+				script.step();
+				logs.add(copy(directory).journal());
+				expected.add(script.expected());
+			}
+			if (journal.getCompactions() > 0)
+				throw new IllegalStateException("Log compacted, use fewer records");
+		}
+		delete(directory);
+
+		byte[] last = logs.get(records);
+		for (int k = 0; k <= records; k++) {
+			check("crash after record " + k, new Image(logs.get(k), null), null, CAPACITY, expected.get(k));
+			if (k == records)
+				break;
+			// record k + 1 starts where the log after it first differs from the log before it
+			int boundary = Arrays.mismatch(logs.get(k), logs.get(k + 1));
+
+			byte[] truncated = Arrays.copyOf(last, boundary);
+			check("truncated at record " + (k + 1), new Image(truncated, null), null, CAPACITY, expected.get(k));
+
+			byte[] corrupt = last.clone();
+			corrupt[boundary] = INVALID_TYPE;
+			check("invalid type of record " + (k + 1), new Image(corrupt, null), null, CAPACITY, expected.get(k));
+
+			byte[] torn = logs.get(k + 1).clone();
+			torn[boundary] = 0;
+			check("torn record " + (k + 1), new Image(torn, null), null, CAPACITY, expected.get(k));
+		}
+	}
+
+	/*
+	 * Compacts explicitly after every few records and replays a crash on either side of the
+	 * snapshot move; the recovered journal must accept and replay further records.
+	 */
+	private void compactions(int records, long seed) throws IOException {
+		Path directory = Files.createTempDirectory("aqua-crash");
+		Random rand = new Random(seed);
+		try (MembershipJournal journal = MembershipJournal.open(directory, CAPACITY)) {
+			Script script = new Script(journal, rand);
+			for (int k = 0; k < records; k++) {
+				script.step();
+				if (k % 17 != 16)
+					continue;
+				Image before = copy(directory);
+				Expected expected = script.expected();
+				journal.compact();
+				byte[] snapshot = copy(directory).snapshot();
+				String at = " at record " + (k + 1);
+
+				check("crash before snapshot move" + at, before, snapshot, CAPACITY, expected);
+
+				Path recovered = recover("crash before log restart" + at, new Image(before.journal(), snapshot), null,
+						CAPACITY, expected);
+				if (recovered == null)
+					continue;
+				// the recovered journal restarted the log; what is appended now must survive the next crash
+				Expected appended;
+				try (MembershipJournal again = MembershipJournal.open(recovered, CAPACITY)) {
+					Script more = new Script(again, new Random(k));
+					more.members.putAll(script.members);
+					more.left.addAll(script.left);
+					more.counter = script.counter;
+					more.membershipEpoch = script.membershipEpoch;
+					more.tokenEpoch = script.tokenEpoch;
+					for (int i = 0; i < 5; i++)
+						more.step();
+					appended = more.expected();
+				}
+				check("append after log restart" + at, copy(recovered), null, CAPACITY, appended);
+				delete(recovered);
+			}
+		}
+		delete(directory);
+	}
+
+	/*
+	 * Runs the script on a log small enough to compact by itself and replays a crash after every
+	 * record, including the ones that triggered a compaction.
+	 */
+	private long smallLog(int records, long seed) throws IOException {
+		Path directory = Files.createTempDirectory("aqua-crash");
+		long compactions;
+		try (MembershipJournal journal = MembershipJournal.open(directory, SMALL_CAPACITY)) {
+			Script script = new Script(journal, new Random(seed));
+			for (int k = 0; k < records; k++) {
+				script.step();
+				check("small log, crash after record " + (k + 1), copy(directory), null, SMALL_CAPACITY,
+						script.expected());
+			}
+			compactions = journal.getCompactions();
+		}
+		delete(directory);
+		return compactions;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int records = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		JournalCrashCheck check = new JournalCrashCheck();
+		check.boundaries(records, seed);
+		check.compactions(records, seed);
+		long compactions = check.smallLog(records, seed);
+
+		System.out.printf("%d records, %d crashes replayed, %d automatic compactions%n", records, check.checks,
+				compactions);
+		for (String failure : check.failures.subList(0, Math.min(10, check.failures.size())))
+			System.out.println("  " + failure);
+		if (check.failures.size() > 10)
+			System.out.printf("  and %d more%n", check.failures.size() - 10);
+		boolean passed = check.failures.isEmpty();
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+}
@@ -0,0 +1,96 @@
+package aqua.blatt1.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import aqua.blatt1.broker.ClientRing;
+import aqua.blatt1.broker.MembershipJournal;
+
+/*
+ * Time to recover the broker's membership from its journal: opening the journal and rebuilding a
+ * ClientRing from it, like Broker.recover() does. The journal is filled with the given number of
+ * joins, every tenth member leaves again and the epochs move on every change. Recovery is measured
+ * once from the log alone and once from a compaction snapshot.
+ *
+ * Usage: JournalRecoveryBenchmark [members]
+ */
+public class JournalRecoveryBenchmark {
+	private static final int CAPACITY = 64 << 20;
+	private static final int RUNS = 11;
+
+	private static InetSocketAddress address(int i) throws UnknownHostException {
+		return new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8),
+				(byte) i }), 40000 + i % 20000);
+	}
+
+	private static void fill(Path directory, int members) throws UnknownHostException {
+		try (MembershipJournal journal = MembershipJournal.open(directory, CAPACITY)) {
+			long epoch = 0;
+			for (int i = 1; i <= members; i++) {
+				journal.joined(i, address(i));
+				journal.membershipEpoch(++epoch);
+				if (i % 10 == 0) {
+					journal.left(i / 2);
+					journal.membershipEpoch(++epoch);
+				}
+			}
+			journal.tokenEpoch(epoch);
+		}
+	}
+
+	/*
+	 * Prints the median time of reading the journal and of rebuilding and publishing the ring.
+	 */
+	private static void recover(String name, Path directory, int expected) {
+		long[] open = new long[RUNS];
+		long[] rebuild = new long[RUNS];
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			ClientRing<InetSocketAddress> ring = new ClientRing<>();
+			try (MembershipJournal journal = MembershipJournal.open(directory, CAPACITY)) {
+				long opened = System.nanoTime();
+				journal.getState().getMembers().forEach((number, addr) -> ring.add("client" + number, addr));
+				ring.snapshot(1);
+				open[run] = opened - start;
+				rebuild[run] = System.nanoTime() - opened;
+			}
+			if (ring.size() != expected)
+				throw new IllegalStateException("Recovered " + ring.size() + " members, expected " + expected);
+		}
+		Arrays.sort(open);
+		Arrays.sort(rebuild);
+		System.out.printf("%-24s read journal %,8.1f ms | rebuild ring %,8.1f ms%n", name, open[RUNS / 2] / 1e6,
+				rebuild[RUNS / 2] / 1e6);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int expected = members - members / 10;
+		Path directory = Files.createTempDirectory("aqua-journal");
+		try {
+			fill(directory, members);
+			System.out.printf("%,d members recovered%n", expected);
+			recover("from log", directory, expected);
+
+			try (MembershipJournal journal = MembershipJournal.open(directory, CAPACITY)) {
+				journal.compact();
+			}
+			recover("from snapshot", directory, expected);
+		} finally {
+			delete(directory);
+		}
+	}
+}
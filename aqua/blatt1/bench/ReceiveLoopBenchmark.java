@@ -0,0 +1,89 @@
+package aqua.blatt1.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import messaging.Endpoint;
+import messaging.Message;
+import aqua.blatt1.common.ChannelEndpoint;
+import aqua.blatt1.common.msgtypes.Token;
+
+/*
+ * Compares the old spinning broker receive loop (Endpoint.nonBlockingReceive) with the
+ * selector based ChannelEndpoint.blockingReceive: CPU time burnt by an idle receive
+ * thread and messages per second under a burst of datagrams.
+ *
+ * Usage: ReceiveLoopBenchmark [idleSeconds] [messages]
+ */
+public class ReceiveLoopBenchmark {
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private static final class Loop extends Thread {
+		private final Supplier<Message> receive;
+		private final AtomicInteger received = new AtomicInteger();
+		private volatile boolean running = true;
+		private volatile long cpuNanos;
+
+		Loop(Supplier<Message> receive) {
+			this.receive = receive;
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				if (receive.get() != null)
+					received.incrementAndGet();
+			}
+			cpuNanos = threads.getCurrentThreadCpuTime();
+		}
+	}
+
+	private static void measure(String name, int port, Supplier<Message> receive, Runnable wakeup,
+			int idleSeconds, int messages) throws InterruptedException {
+		Loop loop = new Loop(receive);
+		loop.start();
+		TimeUnit.SECONDS.sleep(idleSeconds);
+		long idleCpu = threads.getThreadCpuTime(loop.threadId());
+
+		Endpoint sender = new Endpoint();
+		InetSocketAddress target = new InetSocketAddress("localhost", port);
+		Token token = new Token(0, 0, 0);
+		long start = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			sender.send(target, token);
+			// keep the burst below what the socket buffer can absorb
+			while (i - loop.received.get() > 256)
+				Thread.onSpinWait();
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (loop.received.get() < messages && System.nanoTime() < deadline)
+			Thread.onSpinWait();
+		long elapsed = System.nanoTime() - start;
+
+		loop.running = false;
+		wakeup.run();
+		loop.join();
+
+		System.out.printf("%-24s idle cpu %6.1f%% | %,10.0f msg/s (%d/%d received)%n", name,
+				100.0 * idleCpu / TimeUnit.SECONDS.toNanos(idleSeconds),
+				loop.received.get() * 1e9 / elapsed, loop.received.get(), messages);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int idleSeconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int messages = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+
+		Endpoint spinning = new Endpoint(4811);
+		measure("spinning nonBlocking", 4811, spinning::nonBlockingReceive, () -> {
+		}, idleSeconds, messages);
+
+		ChannelEndpoint parking = new ChannelEndpoint(4812);
+		measure("selector blocking", 4812, parking::blockingReceive, parking::wakeup, idleSeconds,
+				messages);
+		parking.close();
+	}
+}
@@ -1,18 +1,31 @@
 package aqua.blatt1.broker;
 
+import aqua.blatt1.common.ChannelEndpoint;
 import aqua.blatt1.common.Direction;
 import aqua.blatt1.common.msgtypes.*;
-import messaging.Endpoint;
 import messaging.Message;
 import aqua.blatt1.common.Properties;
 
 import javax.swing.*;
+import java.awt.GraphicsEnvironment;
+import java.io.Serializable;
 import java.net.InetSocketAddress;
-import java.util.concurrent.ExecutorService;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public final class Broker {
     private record Client(InetSocketAddress addr) {
@@ -29,28 +42,99 @@ public final class Broker {
             }
         }
 
-    private final Endpoint endpoint = new Endpoint(Properties.PORT);
-    private final ClientCollection<Client> clients = new ClientCollection<>();
+    /*
+     * A client's membership lease. Every message of the client renews it by moving lastSeen; the
+     * timing wheel only holds the deadline from when the lease was last checked and re-checks lazily.
+     */
+    private static final class Lease {
+        final String id;
+        volatile long lastSeen;
+
+        Lease(String id, long now) {
+            this.id = id;
+            this.lastSeen = now;
+        }
+    }
+
+    private record Eviction(String id, long at) {
+    }
+
+    private static final long LEASE_NANOS = TimeUnit.MILLISECONDS.toNanos(Properties.LEASE_MS);
+    // how long an evicted tank can get its old id back
+    private static final long READMIT_NANOS = 10 * LEASE_NANOS;
+    // 512 slots of 100 ms cover leases of up to 51 s in one revolution
+    private static final long LEASE_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int LEASE_SLOTS = 512;
+    private static final String CLIENT_PREFIX = "client";
+    private static final Dispatcher.OverloadPolicy OVERLOAD_POLICY = Dispatcher.OverloadPolicy
+            .valueOf(Properties.BROKER_OVERLOAD_POLICY);
+    // the codec encodes the departed list with a one byte count
+    private static final int MAX_DEPARTED_PER_UPDATE = 255;
+
+    private final ChannelEndpoint endpoint = new ChannelEndpoint(Properties.PORT);
+    // mutated only while holding the membership lock
+    private final ClientRing<Client> clients = new ClientRing<>();
+    // published copy of clients for lock-free handoff routing
+    private final AtomicReference<RingSnapshot<Client>> ring = new AtomicReference<>(clients.snapshot(0));
     private final AtomicInteger client_counter = new AtomicInteger();
+    private final BrokerMetrics metrics = new BrokerMetrics(() -> ring.get().size(),
+            addr -> ring.get().getId(new Client(addr)));
+    // token leases, guarded by the membership lock: every TokenReceived renews the lease of its
+    // token, the watchdog regenerates a token with a new epoch when its lease expires. tokenEpoch
+    // is the newest epoch issued, tokenEpochs the current epoch of every token.
+    private long tokenEpoch = 0;
+    private int tokenCount = 0;
+    private long[] tokenEpochs = new long[0];
+    private Client[] tokenHolders = new Client[0];
+    private long[] tokenSeen = new long[0];
+    // leases of all clients in the ring; the wheel is guarded by the membership lock
+    private final Map<Client, Lease> leases = new ConcurrentHashMap<>();
+    private final TimingWheel<Lease> leaseWheel = new TimingWheel<>(LEASE_TICK_NANOS, LEASE_SLOTS, System.nanoTime());
+    // ids of evicted clients by address, oldest first, so a tank that was only cut off gets its id
+    // back and the homes of its fishies stay valid; guarded by the membership lock
+    private final Map<Client, Eviction> evicted = new LinkedHashMap<>();
+    // checks the token and the lease deadlines
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "broker-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // serializes membership changes, handoff routing reads the published ring without locking
+    private final Lock lock = new ReentrantLock();
+    // joins and leaves are published with one ring rebuild and one NeighbourUpdate per affected
+    // client per batch; guarded by the membership lock
+    private long membershipEpoch = 0;
+    // the start time, so tanks can tell a restarted broker whose epochs count from 0 again from
+    // the one before it
+    private final long incarnation = System.currentTimeMillis();
+    // records every membership change, so a restarted broker recovers the ring; null if disabled
+    private final MembershipJournal journal = Properties.BROKER_JOURNAL.isEmpty() ? null
+            : MembershipJournal.open(Path.of(Properties.BROKER_JOURNAL), Properties.BROKER_JOURNAL_SIZE);
+    private final MembershipBatcher<Client> membership = new MembershipBatcher<>(watchdog, lock,
+            Properties.MEMBERSHIP_BATCH_MS, this::flushMembership);
     Thread stopRequestThread = new Thread(() -> {
         JOptionPane.showMessageDialog(null, "Press OK button to stop the broker");
         running = false;
+        endpoint.wakeup();
     });
     private volatile boolean running = true;
 
     private void handoff(HandoffRequest r, Message msg) {
-        final int index = clients.indexOf(new Client(msg.getSender()));
-        if (index < 0) {
+        final RingSnapshot<Client> clients = ring.get();
+        final Client sender = new Client(msg.getSender());
+        if (!clients.contains(sender)) {
             System.out.printf("Handoff: Client %s not found%n", r.getFish().getTankId());
+            metrics.unknownSender();
             return;
         }
+        metrics.handoffRouted(msg.getSender());
         InetSocketAddress target = null;
         switch (r.getFish().getDirection()) {
             case Direction.LEFT:
-                target = clients.getLeftNeighorOf(index).addr;
+                target = clients.getLeftNeighorOf(sender).addr;
                 break;
             case Direction.RIGHT:
-                target = clients.getRightNeighorOf(index).addr;
+                target = clients.getRightNeighorOf(sender).addr;
                 break;
             default:
                 System.out.printf("Received unknown direction: %s%n", r.getFish().getDirection());
@@ -60,51 +144,458 @@ public final class Broker {
         endpoint.send(target, r);
     }
 
-    private void deregister(DeregisterRequest r) {
-        final String client_id = r.getId();
-        final int index = clients.indexOf(client_id);
-        if ( index < 0) {
-            System.out.printf("Deregister: Client %s not found%n", client_id);
+    private void resolveName(NameResolutionRequest r, Message msg) {
+        final Client client = ring.get().getClient(r.getTankId());
+        endpoint.send(msg.getSender(), new NameResolutionResponse(r.getTankId(), client == null ? null : client.addr));
+    }
+
+    /*
+     * Must be called with the membership lock held, so the published ring matches membershipEpoch.
+     * Repeats the departure of the tank to the asker, in case the update announcing it was lost.
+     */
+    private void checkMembership(MembershipRequest r, Message msg) {
+        final RingSnapshot<Client> snapshot = ring.get();
+        final Client asker = new Client(msg.getSender());
+        if (snapshot.contains(new Client(r.getTank())) || !snapshot.contains(asker)) {
             return;
         }
-        final Client leftNeighbour = clients.getLeftNeighorOf(index);
-        final Client rightNeighbour = clients.getRightNeighorOf(index);
-
-        endpoint.send(leftNeighbour.addr, new NeighbourUpdate(Direction.RIGHT, rightNeighbour.addr));
-        endpoint.send(rightNeighbour.addr, new NeighbourUpdate(Direction.LEFT, leftNeighbour.addr));
+        final List<InetSocketAddress> departed = new ArrayList<>(List.of(r.getTank()));
+        endpoint.send(asker.addr, new NeighbourUpdate(incarnation, membershipEpoch, snapshot.getLeftNeighorOf(asker).addr,
+                snapshot.getRightNeighorOf(asker).addr, departed));
+    }
 
-        clients.remove(index);
+    private void deregister(String client_id) {
+        if (!clients.contains(client_id)) {
+            System.out.printf("Deregister: Client %s not found%n", client_id);
+            metrics.unknownSender();
+            return;
+        }
+        final Client leftNeighbour = clients.getLeftNeighorOf(client_id);
+        final Client rightNeighbour = clients.getRightNeighorOf(client_id);
+        final Client client = clients.remove(client_id);
+        if (journal != null) {
+            journal.left(numberOf(client_id));
+        }
+        leases.remove(client);
+        metrics.deregistered(client.addr);
+        membership.left(client);
+        if (clients.size() > 0) {
+            membership.changed(leftNeighbour);
+            membership.changed(rightNeighbour);
+        }
     }
 
+    /*
+     * A tank registering from an address that is already a member, e.g. because it missed the
+     * RegisterResponse or registered twice after an eviction, keeps its membership: its lease is
+     * renewed and it gets its id and neighbours again instead of a second place in the ring. A tank
+     * evicted within the last READMIT_NANOS is readmitted under its old id.
+     */
     private void register(Message msg) {
-        final String client_id = String.format("client%d", client_counter.addAndGet(1));
         final Client client = new Client(msg.getSender());
+        final String existing = clients.getId(client);
+        if (existing != null) {
+            System.out.printf("Register: %s is already %s%n", client.addr, existing);
+            leases.get(client).lastSeen = System.nanoTime();
+            membership.joined(client, existing);
+            return;
+        }
+        final Eviction eviction = evicted.remove(client);
+        final int number;
+        if (eviction != null && !clients.contains(eviction.id())) {
+            System.out.printf("Register: readmitting %s as %s%n", client.addr, eviction.id());
+            number = numberOf(eviction.id());
+        } else {
+            number = client_counter.addAndGet(1);
+        }
+        final String client_id = CLIENT_PREFIX + number;
         clients.add(client_id, client);
-        final int client_index = clients.indexOf(client_id);
-        final Client leftNeighbour = clients.getLeftNeighorOf(client_index);
-        final Client rightNeighbour = clients.getRightNeighorOf(client_index);
+        if (journal != null) {
+            journal.joined(number, client.addr);
+        }
+        addLease(client_id, client, System.nanoTime());
+        metrics.registered();
+        membership.joined(client, client_id);
+        membership.changed(clients.getLeftNeighorOf(client_id));
+        membership.changed(clients.getRightNeighorOf(client_id));
+    }
+
+    private static int numberOf(String client_id) {
+        return Integer.parseInt(client_id.substring(CLIENT_PREFIX.length()));
+    }
+
+    private void addLease(String client_id, Client client, long now) {
+        final Lease lease = new Lease(client_id, now);
+        leases.put(client, lease);
+        leaseWheel.schedule(lease, lease.lastSeen + LEASE_NANOS);
+    }
+
+    /*
+     * Must be called with the membership lock held, before any message is handled. Rebuilds the
+     * ring, the client counter and the epochs from the journal. The tanks keep their neighbours;
+     * every recovered member gets a fresh lease, so tanks that died meanwhile are evicted, and the
+     * tokens are injected anew with a newer epoch.
+     */
+    private void recover() {
+        final long start = System.nanoTime();
+        final MembershipJournal.State state = journal.getState();
+        state.getMembers().forEach((number, addr) -> {
+            final String client_id = CLIENT_PREFIX + number;
+            final Client client = new Client(addr);
+            clients.add(client_id, client);
+            addLease(client_id, client, start);
+        });
+        client_counter.set(state.getCounter());
+        membershipEpoch = state.getMembershipEpoch();
+        tokenEpoch = state.getTokenEpoch();
+        publishRing();
+        System.out.printf("Recovered %d clients from the journal in %.1f ms%n", clients.size(),
+                (System.nanoTime() - start) / 1e6);
+        if (clients.size() > 0) {
+            rebalanceTokens();
+        }
+    }
+
+    /*
+     * Runs with the membership lock held once per batch of membership changes. Publishes the ring,
+     * sends every changed client its neighbours of the new epoch and the clients that left, and
+     * rebalances the tokens once. More departures than fit one update follow in further updates of
+     * the same epoch.
+     */
+    private void flushMembership(Set<Client> changed, Map<Client, String> joined, Set<Client> departed) {
+        publishRing();
+        final long epoch = ++membershipEpoch;
+        if (journal != null) {
+            journal.membershipEpoch(epoch);
+        }
+        final List<InetSocketAddress> left = new ArrayList<>(departed.size());
+        for (Client client : departed) {
+            left.add(client.addr);
+        }
+        for (Client client : changed) {
+            final InetSocketAddress leftNeighbour = clients.getLeftNeighorOf(client).addr;
+            final InetSocketAddress rightNeighbour = clients.getRightNeighorOf(client).addr;
+            int from = 0;
+            do {
+                final int to = Math.min(from + MAX_DEPARTED_PER_UPDATE, left.size());
+                endpoint.send(client.addr, new NeighbourUpdate(incarnation, epoch, leftNeighbour, rightNeighbour,
+                        new ArrayList<>(left.subList(from, to))));
+                from = to;
+            } while (from < left.size());
+            final String client_id = joined.get(client);
+            if (client_id != null) {
+                // after the neighbour update, so that the first fish is only spawned when the
+                // neighbours are known
+                endpoint.send(client.addr, new RegisterResponse(client_id));
+            }
+        }
+        adjustTokens(departed);
+    }
+
+    private static int tokenCountFor(int size) {
+        return size == 0 ? 0 : Math.max(1, Math.min(Properties.TOKEN_COUNT, size / 2));
+    }
+
+    /*
+     * Must be called with the membership lock held after a batch of membership changes. Only a
+     * change of the token count respaces all tokens; otherwise the tokens keep circulating through
+     * joined tanks and only the tokens last reported by a departed tank are regenerated.
+     */
+    private void adjustTokens(Set<Client> departed) {
+        if (tokenCountFor(clients.size()) != tokenCount) {
+            rebalanceTokens();
+            return;
+        }
+        for (int id = 0; id < tokenCount; id++) {
+            if (departed.contains(tokenHolders[id])) {
+                System.out.printf("Holder of token %d left, regenerating it%n", id);
+                regenerateToken(id);
+            }
+        }
+    }
+
+    /*
+     * Must be called with the membership lock held. Invalidates all circulating tokens and injects
+     * new ones with the next epoch, evenly spaced around the ring. At most one token per two tanks
+     * is injected, so no two holders are adjacent. Tells every tank, so it is only used when the
+     * token count changes, which stops once the ring has 2 * Properties.TOKEN_COUNT tanks, and on
+     * recovery.
+     */
+    private void rebalanceTokens() {
+        final long epoch = ++tokenEpoch;
+        if (journal != null) {
+            journal.tokenEpoch(epoch);
+        }
+        final RingSnapshot<Client> snapshot = ring.get();
+        final int size = snapshot.size();
+        tokenCount = tokenCountFor(size);
+        tokenEpochs = new long[tokenCount];
+        tokenHolders = new Client[tokenCount];
+        tokenSeen = new long[tokenCount];
+        if (size == 0) {
+            return;
+        }
+        if (epoch > 1) {
+            for (int i = 0; i < size; i++) {
+                endpoint.send(snapshot.clientAt(i).addr, new TokenEpoch(epoch, TokenEpoch.ALL_TOKENS));
+            }
+        }
+        // start at a different tank per epoch, in case the previous one died
+        final int offset = (int) (epoch % size);
+        final long now = System.nanoTime();
+        for (int id = 0; id < tokenCount; id++) {
+            final Client client = snapshot.clientAt((offset + id * size / tokenCount) % size);
+            tokenEpochs[id] = epoch;
+            tokenHolders[id] = client;
+            tokenSeen[id] = now;
+            endpoint.send(client.addr, new Token(epoch, id, 0));
+        }
+        System.out.printf("Injected %d token(s) with epoch %d%n", tokenCount, epoch);
+    }
+
+    /*
+     * Must be called with the membership lock held. Replaces one token by a new one with the next
+     * epoch, injected in the middle of the largest gap between the other tokens. Only its last
+     * holder is told; other tanks drop the old token when they report it.
+     */
+    private void regenerateToken(int id) {
+        final RingSnapshot<Client> snapshot = ring.get();
+        if (snapshot.size() == 0) {
+            return;
+        }
+        final long epoch = ++tokenEpoch;
+        if (journal != null) {
+            journal.tokenEpoch(epoch);
+        }
+        final Client previous = tokenHolders[id];
+        if (previous != null && snapshot.contains(previous)) {
+            endpoint.send(previous.addr, new TokenEpoch(epoch, id));
+        }
+        final Client client = snapshot.clientAt(largestGap(id, epoch, snapshot));
+        tokenEpochs[id] = epoch;
+        tokenHolders[id] = client;
+        tokenSeen[id] = System.nanoTime();
+        endpoint.send(client.addr, new Token(epoch, id, 0));
+        System.out.printf("Injected token %d with epoch %d at %s%n", id, epoch, client.addr);
+    }
+
+    /*
+     * Returns the ring index in the middle of the largest gap between the holders of all tokens
+     * but the given one, or an index that changes with the epoch if there are no other holders.
+     */
+    private int largestGap(int id, long epoch, RingSnapshot<Client> snapshot) {
+        final int size = snapshot.size();
+        final int[] held = new int[tokenCount];
+        int count = 0;
+        for (int other = 0; other < tokenCount; other++) {
+            if (other == id || tokenHolders[other] == null) {
+                continue;
+            }
+            final int index = snapshot.indexOf(tokenHolders[other]);
+            if (index >= 0) {
+                held[count++] = index;
+            }
+        }
+        if (count == 0) {
+            // a different tank per epoch, in case the previous one died
+            return (int) (epoch % size);
+        }
+        Arrays.sort(held, 0, count);
+        int from = held[count - 1];
+        int gap = held[0] + size - from;
+        for (int i = 1; i < count; i++) {
+            if (held[i] - held[i - 1] > gap) {
+                from = held[i - 1];
+                gap = held[i] - held[i - 1];
+            }
+        }
+        return (from + gap / 2) % size;
+    }
 
-        endpoint.send(client.addr, new NeighbourUpdate(Direction.LEFT, leftNeighbour.addr));
-        endpoint.send(client.addr, new NeighbourUpdate(Direction.RIGHT, rightNeighbour.addr));
+    /*
+     * Must be called with the membership lock held.
+     */
+    private void tokenReceived(TokenReceived r, Message msg) {
+        final int id = r.getTokenId();
+        if (r.getEpoch() > tokenEpoch) {
+            // issued before a restart without journal; respace past its epoch so it is dropped
+            System.out.printf("Token %d of unknown epoch %d at %s, respacing%n", id, r.getEpoch(), msg.getSender());
+            tokenEpoch = r.getEpoch();
+            rebalanceTokens();
+            return;
+        }
+        if (id >= tokenCount || r.getEpoch() < tokenEpochs[id]) {
+            System.out.printf("Discarding stale token %d of epoch %d at %s%n", id, r.getEpoch(), msg.getSender());
+            // a token beyond the current count is older than every epoch issued so far
+            endpoint.send(msg.getSender(), new TokenEpoch(id >= tokenCount ? tokenEpoch : tokenEpochs[id], id));
+            return;
+        }
+        final Client holder = new Client(msg.getSender());
+        final long now = System.nanoTime();
+        tokenHolders[id] = holder;
+        tokenSeen[id] = now;
+        if (tokenCount > 1 && holdsAdjacentToken(id, holder, now)) {
+            System.out.printf("Token %d next to another token at %s, moving it%n", id, holder.addr);
+            regenerateToken(id);
+        }
+    }
 
-        endpoint.send(leftNeighbour.addr, new NeighbourUpdate(Direction.RIGHT, client.addr));
-        endpoint.send(rightNeighbour.addr, new NeighbourUpdate(Direction.LEFT, client.addr));
+    /*
+     * Returns whether another token is still held by the holder or one of its neighbours. Tokens
+     * move in lockstep, so the token ahead is only reported at its next tank shortly after this
+     * one; a token therefore only counts as overlapping for the first half of its hold time.
+     */
+    private boolean holdsAdjacentToken(int tokenId, Client holder, long now) {
+        final RingSnapshot<Client> snapshot = ring.get();
+        if (!snapshot.contains(holder)) {
+            return false;
+        }
+        final Client left = snapshot.getLeftNeighorOf(holder);
+        final Client right = snapshot.getRightNeighorOf(holder);
+        for (int id = 0; id < tokenCount; id++) {
+            final Client other = tokenHolders[id];
+            if (id != tokenId && other != null
+                    && now - tokenSeen[id] < TimeUnit.MILLISECONDS.toNanos(Properties.TOKEN_HOLD_MS) / 2
+                    && (other.equals(holder) || other.equals(left) || other.equals(right))) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // after the updateNeighbour messages have been sent, we can send the register response
-        // so that the first fish is only spawned when the neighbours are ready
-        endpoint.send(client.addr, new RegisterResponse(client_id));
+    /*
+     * Must be called with the membership lock held. Regenerates every token that was not
+     * reported for Properties.TOKEN_LOSS_MS.
+     */
+    private void checkToken() {
+        final long now = System.nanoTime();
+        for (int id = 0; id < tokenCount; id++) {
+            if (now - tokenSeen[id] >= TimeUnit.MILLISECONDS.toNanos(Properties.TOKEN_LOSS_MS)) {
+                System.out.printf("Token %d of epoch %d lost, regenerating%n", id, tokenEpochs[id]);
+                regenerateToken(id);
+            }
+        }
+    }
 
-        if (clients.size() == 1) {
-            endpoint.send(client.addr, new Token());
+    /*
+     * Must be called with the membership lock held. Evicts the clients whose lease expired as if
+     * they had deregistered, so their neighbours are connected to each other. Leases that were
+     * renewed since they were scheduled are scheduled again for their new deadline.
+     */
+    private void checkLeases() {
+        final long now = System.nanoTime();
+        final Iterator<Eviction> evictions = evicted.values().iterator();
+        while (evictions.hasNext() && now - evictions.next().at() >= READMIT_NANOS) {
+            evictions.remove();
+        }
+        leaseWheel.advance(now, lease -> {
+            final Client client = clients.getClient(lease.id);
+            if (client == null || leases.get(client) != lease) {
+                // deregistered in the meantime
+                return;
+            }
+            final long deadline = lease.lastSeen + LEASE_NANOS;
+            if (deadline > now) {
+                leaseWheel.schedule(lease, deadline);
+                return;
+            }
+            System.out.printf("Lease of %s at %s expired, evicting%n", lease.id, client.addr);
+            metrics.evicted();
+            deregister(lease.id);
+            evicted.put(client, new Eviction(lease.id, now));
+            // in case the tank is only cut off and hears this, otherwise its next heartbeat is answered
+            endpoint.send(client.addr, new EvictionNotice());
+        });
+    }
+
+    /*
+     * Must be called with the membership lock held once the changes to clients are complete. The
+     * copy is O(n), so it runs once per membership batch, not per change.
+     */
+    private void publishRing() {
+        ring.set(clients.snapshot(ring.get().getVersion() + 1));
+    }
+
+    private Dispatcher newDispatcher() {
+        if (Properties.BROKER_DISPATCH.equals("virtual")) {
+            System.out.printf("dispatching on virtual threads, at most %d in flight%n", Properties.BROKER_MAX_IN_FLIGHT);
+            return new VirtualThreadDispatcher(Properties.BROKER_MAX_IN_FLIGHT, this::shed);
+        }
+        // messages of one priority from one sender always land on the same lane and are handled in order;
+        // control messages overtake the sender's waiting bulk messages
+        return new StripedExecutor(Properties.BROKER_LANES, Properties.BROKER_LANE_CAPACITY,
+                OVERLOAD_POLICY, this::shed);
+    }
+
+    /*
+     * Membership and token messages are control traffic; everything else is bulk and may be shed.
+     */
+    private static Dispatcher.Priority priorityOf(Serializable payload) {
+        return switch (payload) {
+            case RegisterRequest ignored -> Dispatcher.Priority.CONTROL;
+            case DeregisterRequest ignored -> Dispatcher.Priority.CONTROL;
+            case TokenReceived ignored -> Dispatcher.Priority.CONTROL;
+            case PoisonPill ignored -> Dispatcher.Priority.CONTROL;
+            default -> Dispatcher.Priority.BULK;
+        };
+    }
+
+    /*
+     * Called by the dispatcher for every task it discarded or rejected. Senders of shed control
+     * messages are always told, since a lost registration is not retried otherwise.
+     */
+    private void shed(Runnable task) {
+        final Message msg = ((BrokerTask) task).msg;
+        metrics.shed(BrokerMetrics.typeOf(msg.getPayload()));
+        if (OVERLOAD_POLICY == Dispatcher.OverloadPolicy.NACK
+                || priorityOf(msg.getPayload()) == Dispatcher.Priority.CONTROL) {
+            endpoint.send(msg.getSender(), new OverloadNack(msg.getPayload()));
         }
     }
 
     private void brokerAsync() {
-        final ReadWriteLock lock = new ReentrantReadWriteLock();
-        try (ExecutorService service = Executors.newFixedThreadPool(8)) {
-            stopRequestThread.start();
+        endpoint.setReceiveBufferSize(Properties.BROKER_RECEIVE_BUFFER);
+        if (journal != null) {
+            lock.lock();
+            try {
+                recover();
+            } finally {
+                lock.unlock();
+            }
+        }
+        final long period = Math.max(1, Properties.TOKEN_LOSS_MS / 4);
+        watchdog.scheduleWithFixedDelay(() -> {
+            lock.lock();
+            try {
+                checkToken();
+            } finally {
+                lock.unlock();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        final long leasePeriod = TimeUnit.NANOSECONDS.toMillis(LEASE_TICK_NANOS);
+        watchdog.scheduleWithFixedDelay(() -> {
+            lock.lock();
+            try {
+                checkLeases();
+            } finally {
+                lock.unlock();
+            }
+        }, leasePeriod, leasePeriod, TimeUnit.MILLISECONDS);
+        try (Dispatcher service = newDispatcher()) {
+            metrics.setQueueDepth(service::getBacklog);
+            if (service instanceof StripedExecutor lanes) {
+                metrics.setLanes(lanes);
+            }
+            metrics.setMalformedDatagrams(endpoint::getMalformedCount);
+            metrics.setDroppedSends(endpoint::getDroppedSendCount);
+            metrics.start(Properties.BROKER_METRICS_PORT);
+            // without a display the broker can only be stopped with a PoisonPill
+            if (!GraphicsEnvironment.isHeadless()) {
+                stopRequestThread.start();
+            }
             while (running) {
-                final Message msg = endpoint.nonBlockingReceive();
+                // parks until a datagram arrives or the stopRequestThread wakes us up
+                final Message msg = endpoint.blockingReceive();
                 if (msg == null) {
                     continue;
                 }
@@ -113,40 +604,96 @@ public final class Broker {
                     stopRequestThread.interrupt();
                     System.out.println("received PoisonPill, running = false");
                 }
-                service.execute(new BrokerTask(msg, lock));
+                // renewing here keeps leases alive even when the message itself is shed
+                final Lease lease = leases.get(new Client(msg.getSender()));
+                if (lease != null) {
+                    lease.lastSeen = System.nanoTime();
+                }
+                service.execute(msg.getSender(), priorityOf(msg.getPayload()), new BrokerTask(msg, lock));
+            }
+        }
+        watchdog.shutdownNow();
+        if (journal != null) {
+            lock.lock();
+            try {
+                journal.close();
+            } finally {
+                lock.unlock();
             }
-            service.shutdown();
         }
+        metrics.stop();
+        endpoint.close();
     }
 
     private final class BrokerTask implements Runnable {
         private final Message msg;
-        private final ReadWriteLock lock;
+        private final Lock lock;
+        private final long receivedAt = System.nanoTime();
 
-        public BrokerTask(Message msg, ReadWriteLock lock) {
+        public BrokerTask(Message msg, Lock lock) {
             this.msg = msg;
             this.lock = lock;
         }
 
         @Override
         public void run() {
+            handle();
+            metrics.handled(BrokerMetrics.typeOf(msg.getPayload()), System.nanoTime() - receivedAt);
+        }
+
+        private void handle() {
             switch (msg.getPayload()) {
                 case RegisterRequest ignored: {
-                    lock.writeLock().lock();
-                    register(msg);
-                    lock.writeLock().unlock();
+                    lock.lock();
+                    try {
+                        register(msg);
+                    } finally {
+                        lock.unlock();
+                    }
                     break;
                 }
                 case DeregisterRequest r: {
-                    lock.writeLock().lock();
-                    deregister(r);
-                    lock.writeLock().unlock();
+                    lock.lock();
+                    try {
+                        deregister(r.getId());
+                    } finally {
+                        lock.unlock();
+                    }
                     break;
                 }
                 case HandoffRequest r: {
-                    lock.readLock().lock();
                     handoff(r, msg);
-                    lock.readLock().unlock();
+                    break;
+                }
+                case NameResolutionRequest r: {
+                    resolveName(r, msg);
+                    break;
+                }
+                case MembershipRequest r: {
+                    lock.lock();
+                    try {
+                        checkMembership(r, msg);
+                    } finally {
+                        lock.unlock();
+                    }
+                    break;
+                }
+                case TokenReceived r: {
+                    lock.lock();
+                    try {
+                        tokenReceived(r, msg);
+                    } finally {
+                        lock.unlock();
+                    }
+                    break;
+                }
+                case Heartbeat ignored: {
+                    // the receive loop renewed the lease; a tank without one was evicted and
+                    // has to register again
+                    if (!leases.containsKey(new Client(msg.getSender()))) {
+                        metrics.unknownSender();
+                        endpoint.send(msg.getSender(), new EvictionNotice());
+                    }
                     break;
                 }
                 default:
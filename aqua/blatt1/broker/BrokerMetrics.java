@@ -0,0 +1,374 @@
+package aqua.blatt1.broker;
+
+import aqua.blatt1.common.msgtypes.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/*
+ * Counters, gauges and latency histograms of the broker. Recording only touches LongAdders and
+ * preallocated AtomicLongArrays, so it does not allocate on the message path. Latencies go into
+ * power-of-two nanosecond buckets. Gauges are read when the metrics are scraped.
+ *
+ * The metrics are exported through JMX and as Prometheus text on http://localhost:<port>/metrics.
+ */
+public final class BrokerMetrics implements BrokerMetricsMBean {
+    static final int REGISTER = 0;
+    static final int DEREGISTER = 1;
+    static final int HANDOFF = 2;
+    static final int TOKEN_RECEIVED = 3;
+    static final int NAME_RESOLUTION = 4;
+    static final int POISON_PILL = 5;
+    static final int HEARTBEAT = 6;
+    static final int OTHER = 7;
+    private static final String[] TYPE_NAMES = {"RegisterRequest", "DeregisterRequest", "HandoffRequest",
+            "TokenReceived", "NameResolutionRequest", "PoisonPill", "Heartbeat", "other"};
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] messages = new LongAdder[TYPE_NAMES.length];
+    // per message type: latency from receiving the datagram to finishing its task
+    private final AtomicLongArray[] latencyBuckets = new AtomicLongArray[TYPE_NAMES.length];
+    private final LongAdder[] latencySums = new LongAdder[TYPE_NAMES.length];
+    private final LongAdder registrations = new LongAdder();
+    private final LongAdder deregistrations = new LongAdder();
+    // deregistrations caused by an expired lease, counted in deregistrations as well
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder unknownSenders = new LongAdder();
+    // per message type: messages the dispatcher shed under overload
+    private final LongAdder[] shed = new LongAdder[TYPE_NAMES.length];
+    // handoffs routed per sending tank, to spot hot tanks
+    private final Map<InetSocketAddress, LongAdder> handoffsBySender = new ConcurrentHashMap<>();
+
+    private final IntSupplier ringSize;
+    private final Function<InetSocketAddress, String> tankIds;
+    private volatile IntSupplier queueDepth = () -> 0;
+    // per-lane depths, null unless the broker dispatches on a StripedExecutor
+    private volatile StripedExecutor lanes;
+    private volatile LongSupplier malformedDatagrams = () -> 0;
+    private volatile LongSupplier droppedSends = () -> 0;
+    private HttpServer server;
+    private ObjectName objectName;
+
+    /*
+     * tankIds maps a client address to its tank id, or null if the client is gone.
+     */
+    public BrokerMetrics(IntSupplier ringSize, Function<InetSocketAddress, String> tankIds) {
+        this.ringSize = ringSize;
+        this.tankIds = tankIds;
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            messages[type] = new LongAdder();
+            latencyBuckets[type] = new AtomicLongArray(BUCKETS);
+            latencySums[type] = new LongAdder();
+            shed[type] = new LongAdder();
+        }
+    }
+
+    static int typeOf(Serializable payload) {
+        return switch (payload) {
+            case RegisterRequest ignored -> REGISTER;
+            case DeregisterRequest ignored -> DEREGISTER;
+            case HandoffRequest ignored -> HANDOFF;
+            case TokenReceived ignored -> TOKEN_RECEIVED;
+            case NameResolutionRequest ignored -> NAME_RESOLUTION;
+            case PoisonPill ignored -> POISON_PILL;
+            case Heartbeat ignored -> HEARTBEAT;
+            default -> OTHER;
+        };
+    }
+
+    void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    void setLanes(StripedExecutor lanes) {
+        this.lanes = lanes;
+    }
+
+    void setMalformedDatagrams(LongSupplier malformedDatagrams) {
+        this.malformedDatagrams = malformedDatagrams;
+    }
+
+    void setDroppedSends(LongSupplier droppedSends) {
+        this.droppedSends = droppedSends;
+    }
+
+    void handled(int type, long nanos) {
+        messages[type].increment();
+        latencyBuckets[type].incrementAndGet(bucketOf(nanos));
+        latencySums[type].add(nanos);
+    }
+
+    private static int bucketOf(long nanos) {
+        // bucket b holds latencies up to 2^b ns
+        return nanos <= 1 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos - 1));
+    }
+
+    void registered() {
+        registrations.increment();
+    }
+
+    void deregistered(InetSocketAddress client) {
+        deregistrations.increment();
+        handoffsBySender.remove(client);
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    void handoffRouted(InetSocketAddress sender) {
+        handoffsBySender.computeIfAbsent(sender, s -> new LongAdder()).increment();
+    }
+
+    void shed(int type) {
+        shed[type].increment();
+    }
+
+    void unknownSender() {
+        unknownSenders.increment();
+    }
+
+    /*
+     * Registers the MBean and, for a port > 0, starts the HTTP endpoint on the loopback interface.
+     */
+    void start(int httpPort) {
+        try {
+            objectName = new ObjectName("aqua.broker:type=BrokerMetrics");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            System.out.printf("Could not register broker metrics MBean: %s%n", e);
+            objectName = null;
+        }
+        if (httpPort <= 0) {
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+            server.createContext("/metrics", exchange -> {
+                final byte[] body = getPrometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            System.out.printf("metrics on http://localhost:%d/metrics%n", httpPort);
+        } catch (IOException e) {
+            System.out.printf("Could not start metrics endpoint on port %d: %s%n", httpPort, e);
+            server = null;
+        }
+    }
+
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+                // already gone
+            }
+        }
+    }
+
+    @Override
+    public long getRegistrations() {
+        return registrations.sum();
+    }
+
+    @Override
+    public long getDeregistrations() {
+        return deregistrations.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getHandoffs() {
+        return messages[HANDOFF].sum();
+    }
+
+    @Override
+    public long getUnknownSenderMisses() {
+        return unknownSenders.sum();
+    }
+
+    @Override
+    public long getShedMessages() {
+        long total = 0;
+        for (LongAdder count : shed) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public int getRingSize() {
+        return ringSize.getAsInt();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public int getMaxLaneQueueDepth() {
+        final StripedExecutor lanes = this.lanes;
+        int max = 0;
+        if (lanes != null) {
+            for (int lane = 0; lane < lanes.getLaneCount(); lane++) {
+                max = Math.max(max, lanes.getQueueDepth(lane));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public double getHandoffLatencyMedianMicros() {
+        return quantile(HANDOFF, 0.5) / 1e3;
+    }
+
+    @Override
+    public double getHandoffLatencyP99Micros() {
+        return quantile(HANDOFF, 0.99) / 1e3;
+    }
+
+    /*
+     * Upper bound of the bucket containing the quantile, in nanoseconds.
+     */
+    private long quantile(int type, double q) {
+        final AtomicLongArray buckets = latencyBuckets[type];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            total += buckets.get(b);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank) {
+                return 1L << b;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String getPrometheusText() {
+        final StringBuilder out = new StringBuilder();
+        out.append("# HELP broker_messages_total Messages handled by the broker.\n");
+        out.append("# TYPE broker_messages_total counter\n");
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            out.append("broker_messages_total{type=\"").append(TYPE_NAMES[type]).append("\"} ")
+                    .append(messages[type].sum()).append('\n');
+        }
+
+        counter(out, "broker_registrations_total", "Clients registered.", registrations.sum());
+        counter(out, "broker_deregistrations_total", "Clients deregistered.", deregistrations.sum());
+        counter(out, "broker_evictions_total", "Clients deregistered because their lease expired.",
+                evictions.sum());
+        counter(out, "broker_malformed_datagrams_total", "Datagrams dropped because they could not be decoded.",
+                malformedDatagrams.getAsLong());
+        counter(out, "broker_dropped_sends_total", "Datagrams dropped because the socket send buffer stayed full.",
+                droppedSends.getAsLong());
+        counter(out, "broker_unknown_sender_total", "Messages from or about clients not in the ring.",
+                unknownSenders.sum());
+
+        out.append("# HELP broker_shed_total Messages shed by the dispatcher under overload.\n");
+        out.append("# TYPE broker_shed_total counter\n");
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            out.append("broker_shed_total{type=\"").append(TYPE_NAMES[type]).append("\"} ")
+                    .append(shed[type].sum()).append('\n');
+        }
+
+        out.append("# HELP broker_handoffs_by_tank_total Handoffs routed per sending tank.\n");
+        out.append("# TYPE broker_handoffs_by_tank_total counter\n");
+        handoffsBySender.forEach((sender, count) -> {
+            final String tank = tankIds.apply(sender);
+            out.append("broker_handoffs_by_tank_total{tank=\"").append(tank == null ? sender : tank).append("\"} ")
+                    .append(count.sum()).append('\n');
+        });
+
+        gauge(out, "broker_ring_size", "Tanks in the ring.", ringSize.getAsInt());
+        gauge(out, "broker_queue_depth", "Messages waiting for or being handled by the dispatcher.",
+                queueDepth.getAsInt());
+        final StripedExecutor lanes = this.lanes;
+        if (lanes != null) {
+            // a single hot lane sheds messages while the total still looks harmless
+            out.append("# HELP broker_lane_queue_depth Messages waiting in a dispatcher lane.\n");
+            out.append("# TYPE broker_lane_queue_depth gauge\n");
+            for (int lane = 0; lane < lanes.getLaneCount(); lane++) {
+                out.append("broker_lane_queue_depth{lane=\"").append(lane).append("\"} ")
+                        .append(lanes.getQueueDepth(lane)).append('\n');
+            }
+            out.append("# HELP broker_lane_max_queue_depth Highest number of messages a lane has held.\n");
+            out.append("# TYPE broker_lane_max_queue_depth gauge\n");
+            for (int lane = 0; lane < lanes.getLaneCount(); lane++) {
+                out.append("broker_lane_max_queue_depth{lane=\"").append(lane).append("\"} ")
+                        .append(lanes.getMaxQueueDepth(lane)).append('\n');
+            }
+        }
+
+        out.append("# HELP broker_message_latency_seconds Time from receiving a message to finishing its task.\n");
+        out.append("# TYPE broker_message_latency_seconds histogram\n");
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            final AtomicLongArray buckets = latencyBuckets[type];
+            long count = 0;
+            int highest = -1;
+            for (int b = 0; b < BUCKETS; b++) {
+                if (buckets.get(b) != 0) {
+                    highest = b;
+                }
+            }
+            for (int b = 0; b <= highest; b++) {
+                count += buckets.get(b);
+                out.append("broker_message_latency_seconds_bucket{type=\"").append(TYPE_NAMES[type])
+                        .append("\",le=\"").append((1L << b) / 1e9).append("\"} ").append(count).append('\n');
+            }
+            out.append("broker_message_latency_seconds_bucket{type=\"").append(TYPE_NAMES[type])
+                    .append("\",le=\"+Inf\"} ").append(count).append('\n');
+            out.append("broker_message_latency_seconds_sum{type=\"").append(TYPE_NAMES[type]).append("\"} ")
+                    .append(latencySums[type].sum() / 1e9).append('\n');
+            out.append("broker_message_latency_seconds_count{type=\"").append(TYPE_NAMES[type]).append("\"} ")
+                    .append(count).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
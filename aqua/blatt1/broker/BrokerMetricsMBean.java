@@ -0,0 +1,36 @@
+package aqua.blatt1.broker;
+
+/*
+ * JMX view of BrokerMetrics, registered as aqua.broker:type=BrokerMetrics.
+ */
+public interface BrokerMetricsMBean {
+    long getRegistrations();
+
+    long getDeregistrations();
+
+    long getEvictions();
+
+    long getHandoffs();
+
+    long getUnknownSenderMisses();
+
+    long getShedMessages();
+
+    int getRingSize();
+
+    int getQueueDepth();
+
+    /*
+     * Depth of the fullest dispatcher lane, 0 when dispatching on virtual threads.
+     */
+    int getMaxLaneQueueDepth();
+
+    double getHandoffLatencyMedianMicros();
+
+    double getHandoffLatencyP99Micros();
+
+    /*
+     * All metrics in the Prometheus text format, like the HTTP endpoint.
+     */
+    String getPrometheusText();
+}
@@ -0,0 +1,128 @@
+package aqua.blatt1.broker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/*
+ * Indexed replacement for ClientCollection. Clients are kept in a circular doubly linked list
+ * in insertion order and indexed by id and by client, so lookup, add, remove and neighbour
+ * queries are O(1). Neighbour semantics match ClientCollection: a new client is appended
+ * at the end of the ring, the left neighbour of the first client is the last one.
+ *
+ * This class is not thread-safe and hence must be used in a thread-safe way, e.g. thread confined or
+ * externally synchronized.
+ */
+public class ClientRing<T> {
+	private class Node {
+		final String id;
+		final T client;
+		Node left;
+		Node right;
+
+		Node(String id, T client) {
+			this.id = id;
+			this.client = client;
+		}
+	}
+
+	private final Map<String, Node> byId = new HashMap<>();
+	private final Map<T, Node> byClient = new HashMap<>();
+	private Node first;
+
+	public ClientRing<T> add(String id, T client) {
+		Node node = new Node(id, client);
+		if (first == null) {
+			node.left = node;
+			node.right = node;
+			first = node;
+		} else {
+			Node last = first.left;
+			node.left = last;
+			node.right = first;
+			last.right = node;
+			first.left = node;
+		}
+		byId.put(id, node);
+		byClient.put(client, node);
+		return this;
+	}
+
+	/*
+	 * Removes the client with the given id and returns it, or null if there is no such client.
+	 */
+	public T remove(String id) {
+		Node node = byId.remove(id);
+		if (node == null)
+			return null;
+		byClient.remove(node.client);
+		if (node.right == node) {
+			first = null;
+		} else {
+			node.left.right = node.right;
+			node.right.left = node.left;
+			if (first == node)
+				first = node.right;
+		}
+		return node.client;
+	}
+
+	public boolean contains(String id) {
+		return byId.containsKey(id);
+	}
+
+	public boolean contains(T client) {
+		return byClient.containsKey(client);
+	}
+
+	public T getClient(String id) {
+		Node node = byId.get(id);
+		return node == null ? null : node.client;
+	}
+
+	public String getId(T client) {
+		Node node = byClient.get(client);
+		return node == null ? null : node.id;
+	}
+
+	public int size() {
+		return byId.size();
+	}
+
+	public T getLeftNeighorOf(String id) {
+		Node node = byId.get(id);
+		return node == null ? null : node.left.client;
+	}
+
+	public T getRightNeighorOf(String id) {
+		Node node = byId.get(id);
+		return node == null ? null : node.right.client;
+	}
+
+	public T getLeftNeighorOf(T client) {
+		Node node = byClient.get(client);
+		return node == null ? null : node.left.client;
+	}
+
+	public T getRightNeighorOf(T client) {
+		Node node = byClient.get(client);
+		return node == null ? null : node.right.client;
+	}
+
+	/*
+	 * Visits all clients in ring order, starting with the oldest one.
+	 */
+	public void forEach(BiConsumer<String, T> action) {
+		Node node = first;
+		for (int i = 0; i < byId.size(); i++, node = node.right)
+			action.accept(node.id, node.client);
+	}
+
+	/*
+	 * Copies the ring in O(n), see RingSnapshot; call it once per batch of changes, not per change.
+	 */
+	public RingSnapshot<T> snapshot(long version) {
+		return new RingSnapshot<>(this, version);
+	}
+
+}
@@ -0,0 +1,41 @@
+package aqua.blatt1.broker;
+
+/*
+ * Runs broker tasks. The key identifies the sender of the message a task handles.
+ *
+ * execute() never blocks, since it runs on the broker's only receive thread. Bulk tasks (handoffs
+ * and lookups) are shed under overload according to the OverloadPolicy. Control tasks (membership
+ * and token messages) take precedence and are only shed once the dispatcher is full of control
+ * work. Every shed task is passed to the dispatcher's shed handler.
+ *
+ * Ordering is at most per key and per priority: a control task may run before bulk tasks of the
+ * same key that were submitted earlier, so a sender's handoff can be handled after its
+ * DeregisterRequest. Tasks must not rely on the order of messages of different priorities; a bulk
+ * task whose sender already left is handled like one from an unknown sender. Implementations may
+ * give weaker guarantees and say so.
+ */
+public interface Dispatcher extends AutoCloseable {
+    enum Priority {
+        CONTROL, BULK
+    }
+
+    enum OverloadPolicy {
+        // a full dispatcher discards its oldest waiting bulk task to make room for the new one
+        DROP_OLDEST,
+        // a full dispatcher rejects the new bulk task, so its sender can be told to retry
+        NACK
+    }
+
+    void execute(Object key, Priority priority, Runnable task);
+
+    /*
+     * Number of submitted tasks that have not finished yet.
+     */
+    int getBacklog();
+
+    /*
+     * Finishes all submitted tasks and releases the dispatcher's threads.
+     */
+    @Override
+    void close();
+}
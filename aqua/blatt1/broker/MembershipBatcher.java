@@ -0,0 +1,99 @@
+package aqua.blatt1.broker;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/*
+ * Coalesces membership changes. The broker records joins, leaves and the clients whose neighbours
+ * changed while holding the membership lock; the first change after a flush schedules the next
+ * flush windowMillis later. The flush runs under the same lock and sees every client at most once,
+ * however often its neighbours changed in the meantime. The window must be positive: every flush
+ * copies the whole ring into a new RingSnapshot, so flushing per change would make a join storm
+ * quadratic.
+ */
+public final class MembershipBatcher<T> {
+    public interface Flush<T> {
+        /*
+         * changed holds the clients still in the ring whose neighbours changed, in the order they
+         * were recorded; joined maps the clients that joined since the last flush to their ids;
+         * departed holds the clients that left since the last flush and did not rejoin.
+         */
+        void flush(Set<T> changed, Map<T, String> joined, Set<T> departed);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Lock lock;
+    private final long windowMillis;
+    private final Flush<T> flush;
+    // guarded by lock
+    private Set<T> changed = new LinkedHashSet<>();
+    private Map<T, String> joined = new LinkedHashMap<>();
+    private Set<T> departed = new LinkedHashSet<>();
+    private boolean scheduled;
+
+    public MembershipBatcher(ScheduledExecutorService scheduler, Lock lock, long windowMillis, Flush<T> flush) {
+        if (windowMillis <= 0)
+            throw new IllegalArgumentException("Membership batch window must be positive: " + windowMillis);
+        this.scheduler = scheduler;
+        this.lock = lock;
+        this.windowMillis = windowMillis;
+        this.flush = flush;
+    }
+
+    /*
+     * Must be called with the lock held.
+     */
+    public void joined(T client, String id) {
+        joined.put(client, id);
+        departed.remove(client);
+        changed(client);
+    }
+
+    /*
+     * Must be called with the lock held. A client that left is not notified any more.
+     */
+    public void left(T client) {
+        changed.remove(client);
+        joined.remove(client);
+        departed.add(client);
+        schedule();
+    }
+
+    /*
+     * Must be called with the lock held.
+     */
+    public void changed(T client) {
+        changed.add(client);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            scheduler.schedule(() -> {
+                lock.lock();
+                try {
+                    flushNow();
+                } finally {
+                    lock.unlock();
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushNow() {
+        final Set<T> batch = changed;
+        final Map<T, String> joins = joined;
+        final Set<T> left = departed;
+        changed = new LinkedHashSet<>();
+        joined = new LinkedHashMap<>();
+        departed = new LinkedHashSet<>();
+        scheduled = false;
+        flush.flush(batch, joins, left);
+    }
+}
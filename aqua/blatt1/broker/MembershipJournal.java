@@ -0,0 +1,254 @@
+package aqua.blatt1.broker;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Append-only journal of the broker's membership, so a restarted broker rebuilds its ring, client
+ * counter and epochs without the tanks registering again.
+ *
+ * The directory holds two files. "journal" is a fixed-size memory-mapped log of join, leave and
+ * epoch records. A record's type byte is written after its fields and after the terminating zero
+ * behind it, so a record cut short by a crash reads as the end of the log. "snapshot" holds the
+ * compacted state: once the log is half full, the current state is written to a new snapshot that
+ * atomically replaces the old one, and the log starts over. Both carry a generation number, so a
+ * log older than the snapshot is ignored. Records reach the page cache right away and survive a
+ * crash of the broker process; they are only forced to disk on compaction and close.
+ *
+ * Clients are identified by the number of their id "client<n>". This class is not thread-safe;
+ * the broker appends while holding the membership lock.
+ */
+public final class MembershipJournal implements AutoCloseable {
+    private static final int MAGIC = 0x41514A4C;
+    // magic, generation
+    private static final int HEADER_SIZE = 12;
+    private static final byte END = 0;
+    private static final byte JOIN = 1;
+    private static final byte LEAVE = 2;
+    private static final byte MEMBERSHIP_EPOCH = 3;
+    private static final byte TOKEN_EPOCH = 4;
+    // type, number, address length, IPv6 address, port
+    private static final int MAX_RECORD_SIZE = 1 + 4 + 1 + 16 + 2;
+
+    /*
+     * Membership as recorded in the journal.
+     */
+    public static final class State {
+        // by client number, in ring order
+        private final Map<Integer, InetSocketAddress> members = new LinkedHashMap<>();
+        private int counter;
+        private long membershipEpoch;
+        private long tokenEpoch;
+
+        public Map<Integer, InetSocketAddress> getMembers() {
+            return Collections.unmodifiableMap(members);
+        }
+
+        public int getCounter() {
+            return counter;
+        }
+
+        public long getMembershipEpoch() {
+            return membershipEpoch;
+        }
+
+        public long getTokenEpoch() {
+            return tokenEpoch;
+        }
+
+        private void join(int number, InetSocketAddress addr) {
+            members.put(number, addr);
+            counter = Math.max(counter, number);
+        }
+    }
+
+    private final Path snapshotFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer log;
+    private final State state = new State();
+    private long generation;
+    private long compactions;
+
+    private MembershipJournal(Path directory, int capacity) throws IOException {
+        Files.createDirectories(directory);
+        snapshotFile = directory.resolve("snapshot");
+        generation = Files.exists(snapshotFile) ? readSnapshot() : 0;
+        channel = FileChannel.open(directory.resolve("journal"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        if (log.getInt(0) == MAGIC && log.getLong(4) == generation) {
+            replay();
+        } else {
+            startLog();
+        }
+    }
+
+    /*
+     * Opens the journal in the directory and recovers the state recorded in it.
+     */
+    public static MembershipJournal open(Path directory, int capacity) {
+        try {
+            return new MembershipJournal(directory, capacity);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * The state as of the last record. It stays up to date with every record appended.
+     */
+    public State getState() {
+        return state;
+    }
+
+    public long getCompactions() {
+        return compactions;
+    }
+
+    public void joined(int number, InetSocketAddress addr) {
+        state.join(number, addr);
+        final byte[] ip = addr.getAddress().getAddress();
+        final int at = log.position();
+        log.position(at + 1);
+        log.putInt(number).put((byte) ip.length).put(ip).putShort((short) addr.getPort());
+        commit(at, JOIN);
+    }
+
+    public void left(int number) {
+        state.members.remove(number);
+        final int at = log.position();
+        log.position(at + 1);
+        log.putInt(number);
+        commit(at, LEAVE);
+    }
+
+    public void membershipEpoch(long epoch) {
+        state.membershipEpoch = epoch;
+        final int at = log.position();
+        log.position(at + 1);
+        log.putLong(epoch);
+        commit(at, MEMBERSHIP_EPOCH);
+    }
+
+    public void tokenEpoch(long epoch) {
+        state.tokenEpoch = epoch;
+        final int at = log.position();
+        log.position(at + 1);
+        log.putLong(epoch);
+        commit(at, TOKEN_EPOCH);
+    }
+
+    /*
+     * Terminates the log behind the record written at position at, then makes the record valid.
+     */
+    private void commit(int at, byte type) {
+        log.put(log.position(), END);
+        log.put(at, type);
+        if (log.position() > log.capacity() / 2) {
+            compact();
+        }
+    }
+
+    private void replay() {
+        log.position(HEADER_SIZE);
+        while (log.position() + MAX_RECORD_SIZE < log.capacity()) {
+            final int at = log.position();
+            switch (log.get()) {
+                case JOIN -> state.join(log.getInt(), getAddress(log));
+                case LEAVE -> state.members.remove(log.getInt());
+                case MEMBERSHIP_EPOCH -> state.membershipEpoch = log.getLong();
+                case TOKEN_EPOCH -> state.tokenEpoch = log.getLong();
+                default -> {
+                    // END, or garbage behind a torn write
+                    log.position(at);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void startLog() {
+        log.putInt(0, MAGIC).putLong(4, generation).put(HEADER_SIZE, END);
+        log.position(HEADER_SIZE);
+    }
+
+    /*
+     * Writes the current state to a new snapshot and empties the log.
+     */
+    public void compact() {
+        final long next = generation + 1;
+        final ByteBuffer out = ByteBuffer.allocate(4 + 8 + 4 + 8 + 8 + 4 + state.members.size() * (MAX_RECORD_SIZE - 1));
+        out.putInt(MAGIC).putLong(next).putInt(state.counter).putLong(state.membershipEpoch).putLong(state.tokenEpoch)
+                .putInt(state.members.size());
+        state.members.forEach((number, addr) -> {
+            final byte[] ip = addr.getAddress().getAddress();
+            out.putInt(number).put((byte) ip.length).put(ip).putShort((short) addr.getPort());
+        });
+        out.flip();
+        final Path tmp = snapshotFile.resolveSibling("snapshot.tmp");
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(true);
+            Files.move(tmp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // a crash before the new log header is written leaves a log of the old generation, which
+        // the snapshot already contains
+        generation = next;
+        startLog();
+        log.force();
+        compactions++;
+    }
+
+    private long readSnapshot() throws IOException {
+        final ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a membership snapshot: " + snapshotFile);
+        }
+        final long snapshotGeneration = in.getLong();
+        state.counter = in.getInt();
+        state.membershipEpoch = in.getLong();
+        state.tokenEpoch = in.getLong();
+        final int size = in.getInt();
+        for (int i = 0; i < size; i++) {
+            state.join(in.getInt(), getAddress(in));
+        }
+        return snapshotGeneration;
+    }
+
+    private static InetSocketAddress getAddress(ByteBuffer in) {
+        final byte[] ip = new byte[in.get()];
+        in.get(ip);
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(ip), in.getShort() & 0xFFFF);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        log.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
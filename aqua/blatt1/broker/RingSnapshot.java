@@ -0,0 +1,89 @@
+package aqua.blatt1.broker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Immutable, versioned copy of a ClientRing. Snapshots are safe to share between threads without
+ * locking; readers that hold a snapshot keep seeing that version of the ring even while a newer
+ * one is published. Lookups are O(1).
+ *
+ * A snapshot shares nothing with the ring or with older snapshots, so building one copies the whole
+ * ring: O(n) time and memory per publication. That is only affordable because the broker publishes
+ * once per MembershipBatcher flush rather than once per join or leave; a registration storm of k
+ * tanks within one batch window costs one copy instead of k. Publishing per change would make a
+ * storm O(n * k), which is why MembershipBatcher rejects a window of 0.
+ */
+public final class RingSnapshot<T> {
+	private final long version;
+	private final String[] ids;
+	private final Object[] clients;
+	private final Map<String, Integer> indexById;
+	private final Map<T, Integer> indexByClient;
+
+	RingSnapshot(ClientRing<T> ring, long version) {
+		this.version = version;
+		final int size = ring.size();
+		ids = new String[size];
+		clients = new Object[size];
+		indexById = new HashMap<>(size * 2);
+		indexByClient = new HashMap<>(size * 2);
+		final int[] next = { 0 };
+		ring.forEach((id, client) -> {
+			final int i = next[0]++;
+			ids[i] = id;
+			clients[i] = client;
+			indexById.put(id, i);
+			indexByClient.put(client, i);
+		});
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public boolean contains(T client) {
+		return indexByClient.containsKey(client);
+	}
+
+	public T getClient(String id) {
+		final Integer index = indexById.get(id);
+		return index == null ? null : clientAt(index);
+	}
+
+	public String getId(T client) {
+		final Integer index = indexByClient.get(client);
+		return index == null ? null : ids[index];
+	}
+
+	/*
+	 * Returns the position of the client in ring order, or -1 if it is not in the ring.
+	 */
+	public int indexOf(T client) {
+		final Integer index = indexByClient.get(client);
+		return index == null ? -1 : index;
+	}
+
+	public T getLeftNeighorOf(T client) {
+		final Integer index = indexByClient.get(client);
+		return index == null ? null : clientAt(index == 0 ? ids.length - 1 : index - 1);
+	}
+
+	public T getRightNeighorOf(T client) {
+		final Integer index = indexByClient.get(client);
+		return index == null ? null : clientAt(index == ids.length - 1 ? 0 : index + 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	public T clientAt(int index) {
+		return (T) clients[index];
+	}
+
+	public String idAt(int index) {
+		return ids[index];
+	}
+}
@@ -0,0 +1,200 @@
+package aqua.blatt1.broker;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/*
+ * Executor with a fixed number of single-threaded lanes. Every task is submitted with a key and
+ * tasks with equal keys always run on the same lane, while tasks with different keys run in
+ * parallel on different lanes. Each lane has a control queue and a bulk queue and always runs
+ * waiting control tasks first, so a burst of handoffs cannot delay registrations or token reports.
+ * Within a priority, tasks with equal keys run in submission order; across priorities they do not,
+ * see Dispatcher.
+ *
+ * execute() never blocks, so one busy lane cannot stall the receive loop for all others. A lane
+ * holds at most twice the queue capacity: bulk tasks get up to the capacity and are shed according
+ * to the OverloadPolicy beyond it. Control tasks may use whatever room bulk tasks leave, and in a
+ * full lane they displace the oldest bulk task. Only in a lane full of control tasks is a control
+ * task shed.
+ */
+public final class StripedExecutor implements Dispatcher {
+    private final class Lane extends Thread {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final ArrayDeque<Runnable> control;
+        private final ArrayDeque<Runnable> bulk;
+        private final int capacity;
+        private boolean closed;
+        private volatile int maxDepth;
+
+        Lane(int index, int capacity) {
+            super("broker-lane-" + index);
+            this.capacity = capacity;
+            this.control = new ArrayDeque<>(capacity);
+            this.bulk = new ArrayDeque<>(capacity);
+        }
+
+        void submit(Priority priority, Runnable task) {
+            Runnable shed = null;
+            lock.lock();
+            try {
+                final boolean full = control.size() + bulk.size() >= 2 * capacity;
+                if (priority == Priority.CONTROL) {
+                    if (!full) {
+                        control.add(task);
+                    } else if (!bulk.isEmpty()) {
+                        shed = bulk.poll();
+                        control.add(task);
+                    } else {
+                        shed = task;
+                    }
+                } else if (bulk.size() < capacity && !full) {
+                    bulk.add(task);
+                } else if (policy == OverloadPolicy.DROP_OLDEST && !bulk.isEmpty()) {
+                    shed = bulk.poll();
+                    bulk.add(task);
+                } else {
+                    shed = task;
+                }
+                if (shed != task) {
+                    notEmpty.signal();
+                }
+                final int depth = control.size() + bulk.size();
+                if (depth > maxDepth) {
+                    maxDepth = depth;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (shed != null) {
+                onShed.accept(shed);
+            }
+        }
+
+        /*
+         * Returns the next task, control tasks first, or null once the lane is closed and drained.
+         */
+        Runnable take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (control.isEmpty() && bulk.isEmpty()) {
+                    if (closed) {
+                        return null;
+                    }
+                    notEmpty.await();
+                }
+                final Runnable task = control.poll();
+                return task != null ? task : bulk.poll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int depth() {
+            lock.lock();
+            try {
+                return control.size() + bulk.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void shutdown() {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                while ((task = take()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        System.out.printf("%s: task failed: %s%n", getName(), e);
+                    }
+                }
+            } catch (InterruptedException consumed) {
+                // allow lane to terminate
+            }
+        }
+    }
+
+    private final Lane[] lanes;
+    private final OverloadPolicy policy;
+    private final Consumer<Runnable> onShed;
+
+    /*
+     * queueCapacity bounds the bulk queue of every lane, control tasks may use up to twice as much;
+     * onShed gets every task the executor discards or rejects and runs on the submitting thread.
+     */
+    public StripedExecutor(int laneCount, int queueCapacity, OverloadPolicy policy, Consumer<Runnable> onShed) {
+        this.policy = policy;
+        this.onShed = onShed;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, queueCapacity);
+            lanes[i].start();
+        }
+    }
+
+    @Override
+    public void execute(Object key, Priority priority, Runnable task) {
+        lanes[laneOf(key)].submit(priority, task);
+    }
+
+    public int laneOf(Object key) {
+        final int h = key.hashCode();
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public int getQueueDepth(int lane) {
+        return lanes[lane].depth();
+    }
+
+    @Override
+    public int getBacklog() {
+        int backlog = 0;
+        for (Lane lane : lanes) {
+            backlog += lane.depth();
+        }
+        return backlog;
+    }
+
+    /*
+     * Highest queue depth the lane has seen since the executor was created.
+     */
+    public int getMaxQueueDepth(int lane) {
+        return lanes[lane].maxDepth;
+    }
+
+    /*
+     * Lets every lane finish the tasks already queued, then waits for all lanes to terminate.
+     */
+    @Override
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.shutdown();
+        }
+        for (Lane lane : lanes) {
+            try {
+                lane.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
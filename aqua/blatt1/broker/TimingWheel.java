@@ -0,0 +1,78 @@
+package aqua.blatt1.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * Hashed timing wheel. Deadlines are rounded up to whole ticks and hashed into a fixed number of
+ * slots; advance() only looks at the slots of the ticks that passed, so scheduling is O(1) and a
+ * sweep costs O(due entries + ticks), independent of the number of scheduled items. Entries
+ * further away than one revolution stay in their slot until their deadline has passed.
+ *
+ * Scheduled items cannot be cancelled; the caller checks whether an expired item is still
+ * relevant. This class is not thread-safe and hence must be used in a thread-safe way.
+ */
+public final class TimingWheel<T> {
+    private record Entry<T>(T item, long deadline) {
+    }
+
+    private final long tickNanos;
+    private final List<List<Entry<T>>> slots;
+    private final long startNanos;
+    // next tick advance() processes
+    private long tick;
+    private int size;
+
+    public TimingWheel(long tickNanos, int slotCount, long now) {
+        this.tickNanos = tickNanos;
+        this.startNanos = now;
+        slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /*
+     * Schedules the item for the given System.nanoTime() deadline.
+     */
+    public void schedule(T item, long deadline) {
+        final long due = Math.max(tick, Math.ceilDiv(deadline - startNanos, tickNanos));
+        slots.get((int) (due % slots.size())).add(new Entry<>(item, deadline));
+        size++;
+    }
+
+    /*
+     * Passes every item whose deadline is not after now to expired, in no particular order. The
+     * callback may schedule items again.
+     */
+    public void advance(long now, Consumer<T> expired) {
+        final long target = (now - startNanos) / tickNanos;
+        if (target < tick) {
+            return;
+        }
+        final List<T> due = new ArrayList<>();
+        // after a long pause every slot is visited once
+        final long last = Math.min(target, tick + slots.size() - 1);
+        for (long t = tick; t <= last; t++) {
+            final List<Entry<T>> slot = slots.get((int) (t % slots.size()));
+            if (slot.isEmpty()) {
+                continue;
+            }
+            slot.removeIf(entry -> {
+                if (entry.deadline() > now) {
+                    return false;
+                }
+                due.add(entry.item());
+                return true;
+            });
+        }
+        tick = target + 1;
+        size -= due.size();
+        due.forEach(expired);
+    }
+
+    public int size() {
+        return size;
+    }
+}
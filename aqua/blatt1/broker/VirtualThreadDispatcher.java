@@ -0,0 +1,70 @@
+package aqua.blatt1.broker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/*
+ * Runs every task on its own virtual thread, so blocking sends do not tie up a platform thread.
+ * At most maxInFlight bulk tasks exist at a time, so a flood of messages cannot create an unbounded
+ * number of tasks. Control tasks have a reserve of another maxInFlight tasks and may also use free
+ * bulk permits. execute() never blocks the caller (the receive loop): once the permits run out, the
+ * new task is shed. There is no queue to drop from, so both overload policies shed the new task.
+ *
+ * Unlike StripedExecutor this gives no ordering guarantee between tasks with the same key.
+ */
+public final class VirtualThreadDispatcher implements Dispatcher {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+    private final Semaphore controlPermits;
+    private final int maxInFlight;
+    private final Consumer<Runnable> onShed;
+
+    public VirtualThreadDispatcher(int maxInFlight, Consumer<Runnable> onShed) {
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.controlPermits = new Semaphore(maxInFlight);
+        this.onShed = onShed;
+    }
+
+    @Override
+    public void execute(Object key, Priority priority, Runnable task) {
+        final Semaphore acquired;
+        if (priority == Priority.CONTROL && controlPermits.tryAcquire()) {
+            acquired = controlPermits;
+        } else if (permits.tryAcquire()) {
+            acquired = permits;
+        } else {
+            onShed.accept(task);
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.printf("%s: task failed: %s%n", Thread.currentThread(), e);
+            } finally {
+                acquired.release();
+            }
+        });
+    }
+
+    public int getInFlight() {
+        return 2 * maxInFlight - permits.availablePermits() - controlPermits.availablePermits();
+    }
+
+    @Override
+    public int getBacklog() {
+        return getInFlight();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
@@ -4,27 +4,28 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Observable;
-import java.util.Observer;
 
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
-import javax.swing.SwingUtilities;
+import javax.swing.JOptionPane;
 
 @SuppressWarnings("serial")
-public class AquaGui extends JFrame implements Runnable, Observer {
+public class AquaGui extends JFrame implements Runnable, ModelChangeBus.Listener {
 	private final List<JMenuItem> fishMenuItems = Collections
 			.synchronizedList(new ArrayList<JMenuItem>());
 
 	private final JMenu searchMenu;
-	private final Runnable updateRunnable;
+	private final TankModel tankModel;
 
 	public AquaGui(final TankModel tankModel) {
+		this.tankModel = tankModel;
 		TankView tankView = new TankView(tankModel);
-		tankModel.addObserver(tankView);
+		tankModel.getChangeBus().addListener(tankView, ModelChangeBus.Change.FISH_MOVED,
+				ModelChangeBus.Change.FISH_ADDED, ModelChangeBus.Change.TOKEN_CHANGED);
 		add(tankView);
 
 		pack();
@@ -49,27 +50,12 @@ public class AquaGui extends JFrame implements Runnable, Observer {
 		JMenuItem gsMenuItem = new JMenuItem("Global Snapshot");
 		toolsMenu.add(gsMenuItem);
 
-		gsMenuItem.addActionListener(new NotImplementedYetController(this));
+		gsMenuItem.addActionListener(new SnapshotController(this, tankModel));
 
 		searchMenu = new JMenu("Toggle Fish Color...");
 		toolsMenu.add(searchMenu);
-		tankModel.addObserver(this);
-
-		updateRunnable = new Runnable() {
-			@Override
-			public void run() {
-				setTitle(tankModel.getId());
-
-				int size = fishMenuItems.size();
-				while (tankModel.getFishCounter() > size) {
-					String fishId = "fish" + (++size) + "@" + tankModel.getId();
-					JMenuItem fishMenuItem = new JMenuItem(fishId);
-					fishMenuItem.addActionListener(new NotImplementedYetController(AquaGui.this));
-					fishMenuItems.add(fishMenuItem);
-					searchMenu.add(fishMenuItem);
-				}
-			}
-		};
+		tankModel.getChangeBus().addListener(this, ModelChangeBus.Change.ID_ASSIGNED,
+				ModelChangeBus.Change.FISH_ADDED, ModelChangeBus.Change.SNAPSHOT_TAKEN);
 	}
 
 	@Override
@@ -78,8 +64,24 @@ public class AquaGui extends JFrame implements Runnable, Observer {
 	}
 
 	@Override
-	public void update(Observable o, Object arg) {
-		SwingUtilities.invokeLater(updateRunnable);
+	public void modelChanged(EnumSet<ModelChangeBus.Change> changes) {
+		if (changes.contains(ModelChangeBus.Change.ID_ASSIGNED))
+			setTitle(tankModel.getId());
+
+		if (changes.contains(ModelChangeBus.Change.FISH_ADDED)) {
+			int size = fishMenuItems.size();
+			while (tankModel.getFishCounter() > size) {
+				String fishId = "fish" + (++size) + "@" + tankModel.getId();
+				JMenuItem fishMenuItem = new JMenuItem(fishId);
+				fishMenuItem.addActionListener(new ToggleController(tankModel, fishId));
+				fishMenuItems.add(fishMenuItem);
+				searchMenu.add(fishMenuItem);
+			}
+		}
+
+		if (changes.contains(ModelChangeBus.Change.SNAPSHOT_TAKEN))
+			JOptionPane.showMessageDialog(this, String.format("%s%nTook %.1f ms.", tankModel.getLastSnapshot(),
+					tankModel.getLastSnapshotNanos() / 1e6));
 	}
 
 }
@@ -1,49 +1,157 @@
 package aqua.blatt1.client;
 
+import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.ChannelEndpoint;
+import aqua.blatt1.common.LossyTransport;
+import aqua.blatt1.common.Transport;
 import aqua.blatt1.common.msgtypes.*;
-import messaging.Endpoint;
 import messaging.Message;
 import aqua.blatt1.common.FishModel;
 import aqua.blatt1.common.Properties;
 
 public class ClientCommunicator {
-	private final Endpoint endpoint;
+	// upper bound of fishies per HandoffBatch datagram
+	private static final int MAX_BATCH_SIZE = 32;
+
+	private final Transport endpoint;
+	// fishies travel between tanks over reliable channels
+	private final ReliableTransfer reliable;
 
 	public ClientCommunicator() {
-		endpoint = new Endpoint();
+		this(newTransport());
+	}
+
+	public ClientCommunicator(Transport endpoint) {
+		this.endpoint = endpoint;
+		this.reliable = new ReliableTransfer(endpoint, Properties.HANDOFF_WINDOW);
+		// the departure of a neighbour is announced once; ask again while its channel is stalled
+		InetSocketAddress broker = new InetSocketAddress(Properties.HOST, Properties.PORT);
+		reliable.setStallHandler(peer -> endpoint.send(broker, new MembershipRequest(peer)));
+	}
+
+	/*
+	 * A ChannelEndpoint, wrapped into a LossyTransport for the handoff traffic when one of the
+	 * aqua.loss.* properties is set.
+	 */
+	private static Transport newTransport() {
+		Transport endpoint = new ChannelEndpoint();
+		if (Properties.LOSS_DROP > 0 || Properties.LOSS_DUPLICATE > 0 || Properties.LOSS_REORDER > 0)
+			return new LossyTransport(endpoint, Properties.LOSS_DROP, Properties.LOSS_DUPLICATE,
+					Properties.LOSS_REORDER,
+					payload -> payload instanceof ReliableMessage || payload instanceof HandoffAck);
+		return endpoint;
 	}
 
 	public class ClientForwarder {
 		private final InetSocketAddress broker;
+		private final Map<InetSocketAddress, List<FishModel>> pendingHandoffs = new LinkedHashMap<>();
+		// every message to the broker renews the tank's lease
+		private volatile long lastBrokerSend = System.nanoTime();
 
 		private ClientForwarder() {
 			this.broker = new InetSocketAddress(Properties.HOST, Properties.PORT);
 		}
 
+		private void sendToBroker(Serializable payload) {
+			lastBrokerSend = System.nanoTime();
+			endpoint.send(broker, payload);
+		}
+
 		public void register() {
-			endpoint.send(broker, new RegisterRequest());
+			sendToBroker(new RegisterRequest());
 		}
 
 		public void deregister(String id) {
-			endpoint.send(broker, new DeregisterRequest(id));
+			sendToBroker(new DeregisterRequest(id));
+		}
+
+		/*
+		 * Sends a Heartbeat unless another message went to the broker within the last
+		 * Properties.HEARTBEAT_MS.
+		 */
+		public void heartbeat() {
+			if (System.nanoTime() - lastBrokerSend >= TimeUnit.MILLISECONDS.toNanos(Properties.HEARTBEAT_MS))
+				sendToBroker(new Heartbeat());
 		}
 
-		public void handOff(FishModel fish, InetSocketAddress client) {
+		/*
+		 * Queues the fish for the given neighbour. Queued fishies are sent by flushHandoffs(),
+		 * which the tank calls once at the end of every tick.
+		 */
+		public synchronized void handOff(FishModel fish, InetSocketAddress client) {
 			if (client == null) {
 				return;
 			}
-			System.out.println("Handing off fish to " + client);
-			endpoint.send(client, new HandoffRequest(fish));
+			pendingHandoffs.computeIfAbsent(client, c -> new ArrayList<>()).add(fish);
+		}
+
+		/*
+		 * Sends all queued fishies with one reliable message per neighbour, split into chunks of at
+		 * most MAX_BATCH_SIZE fishies.
+		 */
+		public synchronized void flushHandoffs() {
+			for (Map.Entry<InetSocketAddress, List<FishModel>> entry : pendingHandoffs.entrySet()) {
+				InetSocketAddress client = entry.getKey();
+				List<FishModel> fishies = entry.getValue();
+				System.out.println("Handing off " + fishies.size() + " fish to " + client);
+				if (fishies.size() == 1) {
+					reliable.send(client, new HandoffRequest(fishies.get(0)));
+					continue;
+				}
+				for (int from = 0; from < fishies.size(); from += MAX_BATCH_SIZE) {
+					int to = Math.min(from + MAX_BATCH_SIZE, fishies.size());
+					reliable.send(client, new HandoffBatch(new ArrayList<>(fishies.subList(from, to))));
+				}
+			}
+			pendingHandoffs.clear();
+		}
+
+		public void handoverToken(InetSocketAddress leftNeighbour, Token token) {
+			if (leftNeighbour == null) {
+				return;
+			}
+			endpoint.send(leftNeighbour, token);
+		}
+
+		/*
+		 * The handler gets the unacked handoffs to a neighbour that left the ring, so they can be
+		 * sent to a different tank.
+		 */
+		void setUndeliverableHandler(ReliableTransfer.UndeliverableHandler handler) {
+			reliable.setUndeliverableHandler(handler);
 		}
 
-		public void handoverToken(InetSocketAddress leftNeighbour) {
+		public void sendSnapshotMarker(InetSocketAddress neighbour, SnapshotMarker marker) {
+			reliable.send(neighbour, marker);
+		}
+
+		public void sendSnapshotCollector(InetSocketAddress leftNeighbour, SnapshotCollector collector) {
 			if (leftNeighbour == null) {
 				return;
 			}
-			endpoint.send(leftNeighbour, new Token());
+			reliable.send(leftNeighbour, collector);
+		}
+
+		/*
+		 * Sends tank-to-tank traffic of the fish locator over the reliable channel.
+		 */
+		public void sendToTank(InetSocketAddress tank, Serializable payload) {
+			reliable.send(tank, payload);
+		}
+
+		public void resolveName(String tankId) {
+			sendToBroker(new NameResolutionRequest(tankId));
+		}
+
+		public void reportToken(Token token) {
+			sendToBroker(new TokenReceived(token.getEpoch(), token.getId(), token.getSequence()));
 		}
 	}
 
@@ -58,32 +166,83 @@ public class ClientCommunicator {
 		public void run() {
 			while (!isInterrupted()) {
 				Message msg = endpoint.blockingReceive();
+				if (msg == null)
+					continue;
+				long receivedAt = System.nanoTime();
 
-				if (msg.getPayload() instanceof RegisterResponse)
-					tankModel.onRegistration(((RegisterResponse) msg.getPayload()).getId());
-
-				if (msg.getPayload() instanceof HandoffRequest)
-					tankModel.receiveFish(((HandoffRequest) msg.getPayload()).getFish());
-
-				if (msg.getPayload() instanceof NeighbourUpdate u) {
-					switch (u.getDirection()) {
-						case Direction.LEFT:
-							System.out.println("Received neighbour update left: " + u.getNewNeighbour().toString());
-							tankModel.setLeftNeighbour(u.getNewNeighbour());
-							break;
-						case Direction.RIGHT:
-							System.out.println("Received neighbour update right: " + u.getNewNeighbour().toString());
-							tankModel.setRightNeighbour(u.getNewNeighbour());
-							break;
-					}
+				if (msg.getPayload() instanceof ReliableMessage m) {
+					// duplicates and messages after a gap yield nothing here
+					for (Serializable payload : reliable.receive(msg.getSender(), m))
+						receive(msg.getSender(), payload, receivedAt);
+					continue;
 				}
 
-				if (msg.getPayload() instanceof Token) {
-					tankModel.receiveToken();
+				if (msg.getPayload() instanceof HandoffAck a) {
+					reliable.onAck(msg.getSender(), a);
+					continue;
 				}
+
+				receive(msg.getSender(), msg.getPayload(), receivedAt);
 			}
+			reliable.close();
 			System.out.println("Receiver stopped.");
 		}
+
+		private void receive(InetSocketAddress sender, Serializable payload, long receivedAt) {
+			if (payload instanceof RegisterResponse)
+				tankModel.onRegistration(((RegisterResponse) payload).getId());
+
+			if (payload instanceof HandoffRequest)
+				tankModel.receiveFish(sender, ((HandoffRequest) payload).getFish(), receivedAt);
+
+			if (payload instanceof HandoffBatch b)
+				tankModel.receiveFishies(sender, b.getFishies(), receivedAt);
+
+			if (payload instanceof LocationUpdate u)
+				tankModel.receiveLocationUpdate(sender, u);
+
+			if (payload instanceof ToggleRequest r)
+				tankModel.receiveToggleRequest(r);
+
+			if (payload instanceof NameResolutionResponse r)
+				tankModel.onNameResolved(r);
+
+			if (payload instanceof OverloadNack n)
+				tankModel.onOverloadNack(n);
+
+			if (payload instanceof EvictionNotice)
+				tankModel.onEvicted();
+
+			if (payload instanceof SnapshotMarker m)
+				tankModel.receiveSnapshotMarker(sender, m);
+
+			if (payload instanceof SnapshotCollector c)
+				tankModel.receiveSnapshotCollector(c);
+
+			if (payload instanceof NeighbourUpdate u) {
+				if (tankModel.setNeighbours(u.getIncarnation(), u.getEpoch(), u.getLeft(), u.getRight()))
+					System.out.println("Received neighbours " + u.getLeft() + " and " + u.getRight() + " of epoch "
+							+ u.getEpoch());
+				else if (tankModel.isCurrentMembership(u.getIncarnation(), u.getEpoch()))
+					System.out.println("Received " + u.getDeparted().size() + " more departed tanks of epoch "
+							+ u.getEpoch());
+				else
+					System.out.println("Ignoring stale neighbour update of epoch " + u.getEpoch());
+				// after the new neighbours are set, so the handoffs are redirected to them
+				for (InetSocketAddress departed : u.getDeparted())
+					reliable.peerLeft(departed);
+			}
+
+			if (payload instanceof Token t)
+				tankModel.receiveToken(t);
+
+			if (payload instanceof TokenEpoch e)
+				tankModel.onTokenEpoch(e.getEpoch(), e.getTokenId());
+		}
+	}
+
+	ReliableTransfer getReliableTransfer() {
+		return reliable;
 	}
 
 	public ClientForwarder newClientForwarder() {
@@ -0,0 +1,182 @@
+package aqua.blatt1.client;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+ * Hot-path instrumentation of the client. The JFR events below show up in a flight recording
+ * (e.g. -XX:StartFlightRecording); without a recording they are never committed and the JIT removes
+ * their allocation. The counters are JVM-wide LongAdders, cheap enough to stay always on, and are
+ * printed by the headless summary at shutdown.
+ */
+public final class ClientMetrics {
+	private ClientMetrics() {
+	}
+
+	@Name("aqua.Tick")
+	@Label("Tank Tick")
+	@Category("Aqua")
+	@StackTrace(false)
+	static final class TickEvent extends Event {
+		@Label("Steps")
+		int steps;
+		@Label("Fishies")
+		int fishies;
+	}
+
+	@Name("aqua.MonitorWait")
+	@Label("Tank Monitor Wait")
+	@Description("Time spent waiting for the TankModel monitor")
+	@Category("Aqua")
+	@StackTrace(false)
+	static final class MonitorWaitEvent extends Event {
+		@Label("Site")
+		String site;
+		@Label("Wait")
+		@Timespan
+		long waitNanos;
+	}
+
+	@Name("aqua.HandoffSent")
+	@Label("Handoff Sent")
+	@Category("Aqua")
+	@StackTrace(false)
+	static final class HandoffSentEvent extends Event {
+		@Label("Fish")
+		String fishId;
+		@Label("Neighbour")
+		String neighbour;
+	}
+
+	@Name("aqua.HandoffReceived")
+	@Label("Handoff Received")
+	@Description("A fish arrived; the latency runs from receiving its datagram to adding it to the tank")
+	@Category("Aqua")
+	@StackTrace(false)
+	static final class HandoffReceivedEvent extends Event {
+		@Label("Fish")
+		String fishId;
+		@Label("Sender")
+		String sender;
+		@Label("Receive To Apply")
+		@Timespan
+		long latencyNanos;
+	}
+
+	@Name("aqua.TokenHold")
+	@Label("Token Hold")
+	@Category("Aqua")
+	@StackTrace(false)
+	static final class TokenHoldEvent extends Event {
+		@Label("Token")
+		int tokenId;
+		@Label("Hold Time")
+		@Timespan
+		long holdNanos;
+	}
+
+	@Name("aqua.Frame")
+	@Label("TankView Frame")
+	@Description("Painting the tank on the EDT")
+	@Category("Aqua")
+	@StackTrace(false)
+	static final class FrameEvent extends Event {
+		@Label("Buffered")
+		boolean buffered;
+	}
+
+	private static final LongAdder ticks = new LongAdder();
+	private static final LongAdder tickNanos = new LongAdder();
+	private static final LongAdder monitorWaits = new LongAdder();
+	private static final LongAdder monitorWaitNanos = new LongAdder();
+	private static final LongAdder handoffsSent = new LongAdder();
+	private static final LongAdder handoffsReceived = new LongAdder();
+	private static final LongAdder receiveToApplyNanos = new LongAdder();
+	private static final LongAdder tokenHolds = new LongAdder();
+	private static final LongAdder tokenHoldNanos = new LongAdder();
+	private static final LongAdder frames = new LongAdder();
+	private static final LongAdder frameNanos = new LongAdder();
+
+	static void tick(long nanos) {
+		ticks.increment();
+		tickNanos.add(nanos);
+	}
+
+	static void monitorWait(String site, long nanos) {
+		monitorWaits.increment();
+		monitorWaitNanos.add(nanos);
+		MonitorWaitEvent event = new MonitorWaitEvent();
+		if (event.shouldCommit()) {
+			event.site = site;
+			event.waitNanos = nanos;
+			event.commit();
+		}
+	}
+
+	static void handoffSent(String fishId, Object neighbour) {
+		handoffsSent.increment();
+		HandoffSentEvent event = new HandoffSentEvent();
+		if (event.shouldCommit()) {
+			event.fishId = fishId;
+			event.neighbour = String.valueOf(neighbour);
+			event.commit();
+		}
+	}
+
+	static void handoffReceived(String fishId, Object sender, long latencyNanos) {
+		handoffsReceived.increment();
+		receiveToApplyNanos.add(latencyNanos);
+		HandoffReceivedEvent event = new HandoffReceivedEvent();
+		if (event.shouldCommit()) {
+			event.fishId = fishId;
+			event.sender = String.valueOf(sender);
+			event.latencyNanos = latencyNanos;
+			event.commit();
+		}
+	}
+
+	static void tokenHeld(int tokenId, long nanos) {
+		tokenHolds.increment();
+		tokenHoldNanos.add(nanos);
+		TokenHoldEvent event = new TokenHoldEvent();
+		if (event.shouldCommit()) {
+			event.tokenId = tokenId;
+			event.holdNanos = nanos;
+			event.commit();
+		}
+	}
+
+	static void frame(long nanos) {
+		frames.increment();
+		frameNanos.add(nanos);
+	}
+
+	private static void line(PrintStream out, String name, long count, long nanos) {
+		out.printf("%-28s %,12d %14.1f us avg%n", name, count, count == 0 ? 0 : nanos / 1e3 / count);
+	}
+
+	public static void printSummary(PrintStream out) {
+		out.println("client metrics:");
+		line(out, "ticks", ticks.sum(), tickNanos.sum());
+		line(out, "monitor waits", monitorWaits.sum(), monitorWaitNanos.sum());
+		out.printf("%-28s %,12d%n", "handoffs sent", handoffsSent.sum());
+		line(out, "handoffs received (apply)", handoffsReceived.sum(), receiveToApplyNanos.sum());
+		line(out, "token holds", tokenHolds.sum(), tokenHoldNanos.sum());
+		line(out, "frames", frames.sum(), frameNanos.sum());
+	}
+
+	/*
+	 * Prints the summary to stdout when the JVM exits.
+	 */
+	public static void printSummaryAtShutdown() {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> printSummary(System.out), "client-metrics"));
+	}
+}
@@ -0,0 +1,166 @@
+package aqua.blatt1.client;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aqua.blatt1.common.msgtypes.LocationUpdate;
+import aqua.blatt1.common.msgtypes.NameResolutionResponse;
+
+/*
+ * Location references for finding fishies that left their tank. The home tank of a fish (the part
+ * of its id after '@') learns from every tank the fish arrives at where it is now. Every tank also
+ * remembers where it handed fishies off, so a request that reaches a tank the fish has just left
+ * can follow it. Tank addresses are resolved through the broker and cached. Lookups travel as
+ * plain datagrams, so unanswered ones are repeated by retryLookups() and given up after
+ * MAX_LOOKUP_ATTEMPTS, dropping the messages that waited for them.
+ *
+ * All caches, including the pending lookups, are LRU maps of at most `capacity` entries, so nothing
+ * grows with the number of fishies or tanks in the ring. Called with the TankModel monitor held.
+ */
+final class FishLocator {
+	// at most this many messages wait for the address of one tank
+	private static final int MAX_UNRESOLVED = 64;
+	// a lookup is sent at most this often before its messages are dropped
+	private static final int MAX_LOOKUP_ATTEMPTS = 5;
+
+	// messages waiting for the address of a tank
+	private static final class Lookup {
+		final List<Serializable> waiting = new ArrayList<>();
+		int attempts = 1;
+	}
+
+	private final ClientCommunicator.ClientForwarder forwarder;
+	// own fishies that are in another tank: fish id -> that tank
+	private final Map<String, InetSocketAddress> homeReferences;
+	// fishies this tank handed off: fish id -> neighbour
+	private final Map<String, InetSocketAddress> forwardingReferences;
+	// tank id -> address
+	private final Map<String, InetSocketAddress> tankAddresses;
+	// tank id -> pending lookup
+	private final Map<String, Lookup> unresolved;
+	private String tankId;
+
+	FishLocator(ClientCommunicator.ClientForwarder forwarder, int capacity) {
+		this.forwarder = forwarder;
+		this.homeReferences = lru(capacity);
+		this.forwardingReferences = lru(capacity);
+		this.tankAddresses = lru(capacity);
+		this.unresolved = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+				if (size() <= capacity)
+					return false;
+				System.out.println("Too many unresolved tanks, dropping " + eldest.getValue().waiting.size()
+						+ " messages for " + eldest.getKey());
+				return true;
+			}
+		};
+	}
+
+	private static <K, V> Map<K, V> lru(int capacity) {
+		return new LinkedHashMap<K, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	static String homeOf(String fishId) {
+		return fishId.substring(fishId.indexOf('@') + 1);
+	}
+
+	void setTankId(String tankId) {
+		this.tankId = tankId;
+	}
+
+	boolean isHome(String fishId) {
+		return homeOf(fishId).equals(tankId);
+	}
+
+	void handedOff(String fishId, InetSocketAddress neighbour) {
+		forwardingReferences.put(fishId, neighbour);
+		if (isHome(fishId))
+			homeReferences.put(fishId, neighbour);
+	}
+
+	void arrived(String fishId) {
+		forwardingReferences.remove(fishId);
+		if (isHome(fishId))
+			homeReferences.remove(fishId);
+		else
+			sendToTank(homeOf(fishId), new LocationUpdate(fishId));
+	}
+
+	/*
+	 * The home tank learns that one of its fishies is now at the given tank.
+	 */
+	void moved(String fishId, InetSocketAddress location) {
+		if (isHome(fishId))
+			homeReferences.put(fishId, location);
+	}
+
+	/*
+	 * Returns the tank to ask next for a fish this tank does not hold, or null if the request has
+	 * to go to the fish's home tank (or, at home, if the fish is unknown).
+	 */
+	InetSocketAddress next(String fishId) {
+		InetSocketAddress next = isHome(fishId) ? homeReferences.get(fishId) : null;
+		return next != null ? next : forwardingReferences.get(fishId);
+	}
+
+	/*
+	 * Sends the payload over the reliable channel to the tank, asking the broker for its address
+	 * first if necessary.
+	 */
+	void sendToTank(String tankId, Serializable payload) {
+		InetSocketAddress address = tankAddresses.get(tankId);
+		if (address != null) {
+			forwarder.sendToTank(address, payload);
+			return;
+		}
+		Lookup lookup = unresolved.get(tankId);
+		if (lookup == null) {
+			lookup = new Lookup();
+			unresolved.put(tankId, lookup);
+			forwarder.resolveName(tankId);
+		}
+		if (lookup.waiting.size() < MAX_UNRESOLVED)
+			lookup.waiting.add(payload);
+		else
+			System.out.println("Too many messages for unresolved tank " + tankId + ", dropping " + payload);
+	}
+
+	/*
+	 * Repeats the lookups that are still unanswered; called once per heartbeat interval.
+	 */
+	void retryLookups() {
+		unresolved.entrySet().removeIf(entry -> {
+			Lookup lookup = entry.getValue();
+			if (lookup.attempts >= MAX_LOOKUP_ATTEMPTS) {
+				System.out.println("Could not resolve tank " + entry.getKey() + ", dropping "
+						+ lookup.waiting.size() + " messages");
+				return true;
+			}
+			lookup.attempts++;
+			forwarder.resolveName(entry.getKey());
+			return false;
+		});
+	}
+
+	void resolved(NameResolutionResponse response) {
+		Lookup lookup = unresolved.remove(response.getTankId());
+		if (response.getAddress() == null) {
+			System.out.println("Unknown tank " + response.getTankId());
+			return;
+		}
+		tankAddresses.put(response.getTankId(), response.getAddress());
+		if (lookup != null)
+			for (Serializable payload : lookup.waiting)
+				forwarder.sendToTank(response.getAddress(), payload);
+	}
+}
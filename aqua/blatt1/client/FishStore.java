@@ -0,0 +1,167 @@
+package aqua.blatt1.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+/*
+ * Structure-of-arrays storage for the fishies of a tank: positions, directions and toggle flags
+ * live in parallel primitive arrays indexed by slot, ids in a parallel table. Removing a fish
+ * moves the last fish into its slot, so slots are dense but not stable across removals.
+ * Stepping the simulation does not allocate; FishModel objects are only created on demand by
+ * toFishModel(), i.e. when a fish leaves the tank or is shown.
+ *
+ * This class is not thread-safe; TankModel guards it with its monitor.
+ */
+public final class FishStore {
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Random rand = new Random();
+	private int size;
+	private String[] ids = new String[INITIAL_CAPACITY];
+	private int[] x = new int[INITIAL_CAPACITY];
+	private int[] y = new int[INITIAL_CAPACITY];
+	private byte[] dir = new byte[INITIAL_CAPACITY];
+	private boolean[] toggled = new boolean[INITIAL_CAPACITY];
+
+	public int size() {
+		return size;
+	}
+
+	public void add(FishModel fish) {
+		add(fish.getId(), fish.getX(), fish.getY(), fish.getDirection(), fish.isToggled());
+	}
+
+	public void add(String id, int fishX, int fishY, Direction direction, boolean isToggled) {
+		if (size == ids.length)
+			grow();
+		ids[size] = id;
+		x[size] = fishX;
+		y[size] = fishY;
+		dir[size] = (byte) direction.ordinal();
+		toggled[size] = isToggled;
+		size++;
+	}
+
+	private void grow() {
+		int capacity = ids.length * 2;
+		ids = Arrays.copyOf(ids, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		dir = Arrays.copyOf(dir, capacity);
+		toggled = Arrays.copyOf(toggled, capacity);
+	}
+
+	/*
+	 * Removes the fish in the given slot by moving the last fish into it.
+	 */
+	public void removeAt(int i) {
+		int last = --size;
+		ids[i] = ids[last];
+		x[i] = x[last];
+		y[i] = y[last];
+		dir[i] = dir[last];
+		toggled[i] = toggled[last];
+		ids[last] = null;
+	}
+
+	public int indexOf(String id) {
+		for (int i = 0; i < size; i++)
+			if (ids[i].equals(id))
+				return i;
+		return -1;
+	}
+
+	/*
+	 * Moves the fish in the given slot one step, see FishModel.update().
+	 */
+	public void update(int i) {
+		update(i, rand);
+	}
+
+	/*
+	 * Same as update(int) with a caller supplied random generator, so distinct slots can be
+	 * updated concurrently.
+	 */
+	public void update(int i, Random random) {
+		x[i] += DIRECTIONS[dir[i]].getVector();
+		y[i] = FishModel.nextY(x[i], y[i], random);
+	}
+
+	public boolean hitsEdge(int i) {
+		return FishModel.hitsEdge(x[i], DIRECTIONS[dir[i]]);
+	}
+
+	public boolean disappears(int i) {
+		return FishModel.disappears(x[i], DIRECTIONS[dir[i]]);
+	}
+
+	/*
+	 * Counts the fishies that still belong to this tank, see FishModel.isHandedOff().
+	 */
+	public int countResident() {
+		int resident = 0;
+		for (int i = 0; i < size; i++)
+			if (!FishModel.isHandedOff(x[i], DIRECTIONS[dir[i]]))
+				resident++;
+		return resident;
+	}
+
+	/*
+	 * Copies of the fishies counted by countResident().
+	 */
+	public List<FishModel> toResidentFishModels() {
+		List<FishModel> fishies = new ArrayList<>();
+		for (int i = 0; i < size; i++)
+			if (!FishModel.isHandedOff(x[i], DIRECTIONS[dir[i]]))
+				fishies.add(toFishModel(i));
+		return fishies;
+	}
+
+	public void reverse(int i) {
+		dir[i] = (byte) DIRECTIONS[dir[i]].reverse().ordinal();
+	}
+
+	public void toggle(int i) {
+		toggled[i] = !toggled[i];
+	}
+
+	public String getId(int i) {
+		return ids[i];
+	}
+
+	public int getX(int i) {
+		return x[i];
+	}
+
+	public int getY(int i) {
+		return y[i];
+	}
+
+	public Direction getDirection(int i) {
+		return DIRECTIONS[dir[i]];
+	}
+
+	public boolean isToggled(int i) {
+		return toggled[i];
+	}
+
+	public FishModel toFishModel(int i) {
+		FishModel fish = new FishModel(ids[i], x[i], y[i], DIRECTIONS[dir[i]]);
+		if (toggled[i])
+			fish.toggle();
+		return fish;
+	}
+
+	public List<FishModel> toFishModels() {
+		List<FishModel> fishies = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			fishies.add(toFishModel(i));
+		return fishies;
+	}
+}
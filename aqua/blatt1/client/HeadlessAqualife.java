@@ -0,0 +1,120 @@
+package aqua.blatt1.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Runs many tanks in one JVM without any Swing/AWT, for capacity testing of the broker and the
+ * ring. Every tank has its own ClientCommunicator (endpoint, forwarder and receiver thread); all
+ * tanks are ticked by one shared scheduler. Aggregate statistics are printed once per second.
+ *
+ * With snapshotMillis > 0 the first tank initiates a global snapshot at that interval. At the end
+ * the tick latency while a tank records a snapshot is compared to the latency without one.
+ *
+ * Usage: HeadlessAqualife [tanks] [seconds] [fishPerTank] [snapshotMillis]
+ */
+public class HeadlessAqualife {
+	private static final long TICK_MILLIS = 10;
+
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int tankCount = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int fishPerTank = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		int snapshotMillis = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		ClientMetrics.printSummaryAtShutdown();
+
+		// tick latency, [0] without and [1] while recording a snapshot
+		LongAdder[] tickNanos = { new LongAdder(), new LongAdder() };
+		LongAdder[] tickCounts = { new LongAdder(), new LongAdder() };
+		LongAccumulator[] maxTickNanos = { new LongAccumulator(Math::max, 0), new LongAccumulator(Math::max, 0) };
+
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+				Runtime.getRuntime().availableProcessors());
+		List<TankModel> tanks = new ArrayList<>();
+		List<ClientCommunicator> communicators = new ArrayList<>();
+		for (int i = 0; i < tankCount; i++) {
+			ClientCommunicator communicator = new ClientCommunicator();
+			TankModel tankModel = new TankModel(communicator.newClientForwarder());
+			ClientCommunicator.ClientReceiver receiver = communicator.newClientReceiver(tankModel);
+			receiver.setDaemon(true);
+			receiver.start();
+			tanks.add(tankModel);
+			communicators.add(communicator);
+
+			tankModel.register();
+			scheduler.scheduleAtFixedRate(() -> {
+				int recording = tankModel.isRecordingSnapshot() ? 1 : 0;
+				long start = System.nanoTime();
+				tankModel.tick();
+				long nanos = System.nanoTime() - start;
+				tickNanos[recording].add(nanos);
+				tickCounts[recording].increment();
+				maxTickNanos[recording].accumulate(nanos);
+			}, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		TimeUnit.SECONDS.sleep(1);
+		for (TankModel tankModel : tanks)
+			for (int f = 1; f < fishPerTank; f++)
+				tankModel.newFish(TankModel.rand.nextInt(TankModel.WIDTH),
+						TankModel.rand.nextInt(TankModel.HEIGHT));
+		if (snapshotMillis > 0)
+			scheduler.scheduleWithFixedDelay(tanks.get(0)::initiateSnapshot, 0, snapshotMillis,
+					TimeUnit.MILLISECONDS);
+
+		long lastTicks = 0, lastHandoffs = 0, lastTokens = 0;
+		long last = System.nanoTime();
+		System.out.printf("%8s %12s %14s %14s %8s %14s %8s%n", "second", "ticks/s", "handoffs/s", "tokens/s", "fish",
+				"rotation ms", "threads");
+		for (int second = 1; second <= seconds; second++) {
+			TimeUnit.SECONDS.sleep(1);
+			long ticks = 0, handoffs = 0, tokens = 0, fish = 0, rotation = 0;
+			for (TankModel tankModel : tanks) {
+				ticks += tankModel.getTickCount();
+				handoffs += tankModel.getHandoffCount();
+				tokens += tankModel.getTokenCount();
+				fish += tankModel.getFishCount();
+				rotation = Math.max(rotation, tankModel.getAverageTokenRotationNanos());
+			}
+			long now = System.nanoTime();
+			double elapsed = (now - last) / 1e9;
+			System.out.printf("%8d %12.0f %14.1f %14.2f %8d %14.1f %8d%n", second, (ticks - lastTicks) / elapsed,
+					(handoffs - lastHandoffs) / elapsed, (tokens - lastTokens) / elapsed, fish, rotation / 1e6,
+					Thread.activeCount());
+			lastTicks = ticks;
+			lastHandoffs = handoffs;
+			lastTokens = tokens;
+			last = now;
+		}
+
+		long sent = 0, retransmitted = 0, duplicates = 0;
+		for (ClientCommunicator communicator : communicators) {
+			sent += communicator.getReliableTransfer().getSentCount();
+			retransmitted += communicator.getReliableTransfer().getRetransmitCount();
+			duplicates += communicator.getReliableTransfer().getDuplicateCount();
+		}
+		System.out.printf("handoff messages: %d sent, %d retransmitted, %d duplicates suppressed%n", sent,
+				retransmitted, duplicates);
+
+		for (int recording = 0; recording < 2; recording++) {
+			long count = tickCounts[recording].sum();
+			System.out.printf("tick latency %-20s %,10d ticks, avg %8.1f us, max %8.1f us%n",
+					recording == 0 ? "without snapshot:" : "recording snapshot:", count,
+					count == 0 ? 0 : tickNanos[recording].sum() / 1e3 / count, maxTickNanos[recording].get() / 1e3);
+		}
+		if (snapshotMillis > 0)
+			System.out.printf("snapshots: %d completed, avg %.1f ms, last: %s%n", tanks.get(0).getSnapshotCount(),
+					tanks.get(0).getAverageSnapshotNanos() / 1e6, tanks.get(0).getLastSnapshot());
+
+		scheduler.shutdownNow();
+		for (TankModel tankModel : tanks)
+			tankModel.finish();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,88 @@
+package aqua.blatt1.client;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+/*
+ * Typed, coalescing replacement for java.util.Observable. Listeners subscribe to the kinds of
+ * changes they care about and are notified on the listener executor (the EDT by default).
+ * Changes published while a notification is still pending are merged into it, so each listener
+ * has at most one notification queued no matter how often the model publishes.
+ */
+public class ModelChangeBus {
+	public enum Change {
+		// FISH_ADDED: a new fish was created in this tank; received fishies show up with FISH_MOVED
+		FISH_MOVED, FISH_ADDED, ID_ASSIGNED, TOKEN_CHANGED, SNAPSHOT_TAKEN
+	}
+
+	public interface Listener {
+		/*
+		 * Called with all changes of interest published since the last call.
+		 */
+		void modelChanged(EnumSet<Change> changes);
+	}
+
+	private static final Change[] CHANGES = Change.values();
+
+	private final class Subscription implements Runnable {
+		private final Listener listener;
+		private final int interests;
+		// bit set of pending changes; non-zero while a notification is queued
+		private final AtomicInteger pending = new AtomicInteger();
+
+		Subscription(Listener listener, int interests) {
+			this.listener = listener;
+			this.interests = interests;
+		}
+
+		void publish(int change) {
+			if ((interests & change) == 0)
+				return;
+			if (pending.getAndUpdate(bits -> bits | change) == 0)
+				executor.execute(this);
+		}
+
+		@Override
+		public void run() {
+			int bits = pending.getAndSet(0);
+			EnumSet<Change> changes = EnumSet.noneOf(Change.class);
+			for (Change change : CHANGES)
+				if ((bits & bit(change)) != 0)
+					changes.add(change);
+			listener.modelChanged(changes);
+		}
+	}
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final Executor executor;
+
+	public ModelChangeBus() {
+		this(SwingUtilities::invokeLater);
+	}
+
+	public ModelChangeBus(Executor executor) {
+		this.executor = executor;
+	}
+
+	private static int bit(Change change) {
+		return 1 << change.ordinal();
+	}
+
+	public void addListener(Listener listener, Change first, Change... rest) {
+		int interests = bit(first);
+		for (Change change : rest)
+			interests |= bit(change);
+		subscriptions.add(new Subscription(listener, interests));
+	}
+
+	public void publish(Change change) {
+		int bit = bit(change);
+		for (Subscription subscription : subscriptions)
+			subscription.publish(bit);
+	}
+}
@@ -0,0 +1,112 @@
+package aqua.blatt1.client;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Moves all fishies of a FishStore one step on a ForkJoinPool. The store is split into chunks of
+ * consecutive slots; every chunk moves its fishies with the worker's ThreadLocalRandom and records
+ * the slots that hit an edge or disappeared in chunk-local lists. The lists are then merged in
+ * slot order, so the caller can apply handoffs, reverses and removals single-threaded and in the
+ * same order for every run.
+ *
+ * Edge hits and departures are disjoint within one step: a fish at an edge is still fully visible.
+ */
+public final class ParallelFishUpdater {
+	private static final int MIN_CHUNK_SIZE = 2048;
+
+	private final ForkJoinPool pool;
+	private int[] hits = new int[64];
+	private int hitCount;
+	private int[] departures = new int[64];
+	private int departureCount;
+
+	// RecursiveAction is Serializable, but chunks are never serialized
+	@SuppressWarnings("serial")
+	private static final class Chunk extends RecursiveAction {
+		private final FishStore fishies;
+		private final int from;
+		private final int to;
+		private int[] hits = new int[16];
+		private int hitCount;
+		private int[] departures = new int[16];
+		private int departureCount;
+
+		Chunk(FishStore fishies, int from, int to) {
+			this.fishies = fishies;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			for (int i = from; i < to; i++) {
+				fishies.update(i, rand);
+				if (fishies.hitsEdge(i)) {
+					if (hitCount == hits.length)
+						hits = Arrays.copyOf(hits, hitCount * 2);
+					hits[hitCount++] = i;
+				} else if (fishies.disappears(i)) {
+					if (departureCount == departures.length)
+						departures = Arrays.copyOf(departures, departureCount * 2);
+					departures[departureCount++] = i;
+				}
+			}
+		}
+	}
+
+	public ParallelFishUpdater(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/*
+	 * Moves every fish one step. Afterwards getHit() and getDeparture() list the affected slots in
+	 * ascending order. The store must not be modified concurrently.
+	 */
+	public void update(FishStore fishies) {
+		final int size = fishies.size();
+		final int chunkCount = Math.max(1, Math.min(size / MIN_CHUNK_SIZE, pool.getParallelism() * 4));
+		final Chunk[] chunks = new Chunk[chunkCount];
+		for (int c = 0; c < chunkCount; c++)
+			chunks[c] = new Chunk(fishies, (int) ((long) size * c / chunkCount),
+					(int) ((long) size * (c + 1) / chunkCount));
+
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+
+		hitCount = 0;
+		departureCount = 0;
+		for (Chunk chunk : chunks) {
+			hits = append(hits, hitCount, chunk.hits, chunk.hitCount);
+			hitCount += chunk.hitCount;
+			departures = append(departures, departureCount, chunk.departures, chunk.departureCount);
+			departureCount += chunk.departureCount;
+		}
+	}
+
+	private static int[] append(int[] target, int count, int[] source, int sourceCount) {
+		if (count + sourceCount > target.length)
+			target = Arrays.copyOf(target, Math.max(target.length * 2, count + sourceCount));
+		System.arraycopy(source, 0, target, count, sourceCount);
+		return target;
+	}
+
+	public int getHitCount() {
+		return hitCount;
+	}
+
+	public int getHit(int n) {
+		return hits[n];
+	}
+
+	public int getDepartureCount() {
+		return departureCount;
+	}
+
+	public int getDeparture(int n) {
+		return departures[n];
+	}
+}
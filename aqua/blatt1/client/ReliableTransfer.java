@@ -0,0 +1,385 @@
+package aqua.blatt1.client;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import aqua.blatt1.common.Properties;
+import aqua.blatt1.common.Transport;
+import aqua.blatt1.common.msgtypes.HandoffAck;
+import aqua.blatt1.common.msgtypes.HandoffBatch;
+import aqua.blatt1.common.msgtypes.HandoffRequest;
+import aqua.blatt1.common.msgtypes.ReliableMessage;
+
+/*
+ * Reliable, in-order delivery of handoff traffic between tanks over a lossy Transport. Every peer
+ * gets a channel with its own sequence numbers. Up to `window` messages per channel are in flight
+ * at once, further ones wait until acks free the window. Receivers ack cumulatively plus the
+ * sequence numbers they buffered out of order, so senders only retransmit what is missing.
+ * Retransmission timeouts follow the measured round trip time (Jacobson/Karels, ignoring samples
+ * of retransmitted messages as Karn suggests) and back off exponentially.
+ *
+ * A message is retransmitted before its timeout only once DUPLICATE_ACKS acks reported it missing
+ * below a selectively acked one, and only after the first round trip was measured.
+ *
+ * Missing acks alone do not prove that a message was lost, so a channel carrying handoffs is only
+ * given up once peerLeft() reports that its peer left the ring; until then it keeps retransmitting.
+ * While it has been stalled for MAX_TRANSMISSIONS timeouts, every further retransmission asks the
+ * stall handler to check whether the peer is still a member, in case its departure notice was lost.
+ * Other channels are given up when their oldest message stays unacked for MAX_TRANSMISSIONS
+ * timeouts, since redirecting locator or snapshot traffic cannot duplicate a fish. The messages of
+ * a channel given up go to the undeliverable handler, which can route them elsewhere, and the next
+ * message to that peer opens a new channel with a higher id.
+ *
+ * Inbound channels idle for Properties.LEASE_MS, but at least four MAX_RTO_NANOS, are forgotten. A
+ * message on a channel the receiver has no state for is only accepted as its first one; otherwise
+ * the receiver answers with a RESTART ack, ignores the channel from then on, and the sender resends
+ * its unacked messages on a new channel. Senders retransmit at least every MAX_RTO_NANOS, so a channel idle that long has no
+ * delivered but unacked message unless all retransmissions in between were lost.
+ */
+final class ReliableTransfer {
+	private static final int MAX_SELECTIVE_ACKS = 32;
+	private static final int MAX_TRANSMISSIONS = 8;
+	private static final int DUPLICATE_ACKS = 3;
+	private static final long INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+	private static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long MAX_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(2000);
+	// several retransmissions at the longest timeout fit into the idle period
+	private static final long INBOUND_IDLE_NANOS = Math.max(TimeUnit.MILLISECONDS.toNanos(Properties.LEASE_MS),
+			4 * MAX_RTO_NANOS);
+	private static final long SWEEP_MILLIS = 10;
+
+	// one daemon thread checks the retransmission timeouts of all tanks in this JVM
+	private static final ScheduledExecutorService retransmitter = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "handoff-retransmitter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	interface UndeliverableHandler {
+		void undeliverable(InetSocketAddress peer, Serializable payload);
+	}
+
+	interface StallHandler {
+		void stalled(InetSocketAddress peer);
+	}
+
+	private static final class Pending {
+		private final long sequence;
+		private final Serializable payload;
+		private long sentAt;
+		private long deadline;
+		private int transmissions;
+		// acks since the last transmission that reported the message missing
+		private int missingReports;
+
+		Pending(long sequence, Serializable payload) {
+			this.sequence = sequence;
+			this.payload = payload;
+		}
+	}
+
+	private static final class Outbound {
+		private final InetSocketAddress peer;
+		private final long channel;
+		private long nextSequence = 1;
+		private final TreeMap<Long, Pending> unacked = new TreeMap<>();
+		private final ArrayDeque<Serializable> waiting = new ArrayDeque<>();
+		private boolean measured;
+		private long srtt;
+		private long rttvar;
+		private long rto = INITIAL_RTO_NANOS;
+		// the oldest message reached MAX_TRANSMISSIONS, reported once
+		private boolean stalled;
+
+		Outbound(InetSocketAddress peer, long channel) {
+			this.peer = peer;
+			this.channel = channel;
+		}
+	}
+
+	private static final class Inbound {
+		private long channel;
+		private long cumulative;
+		private final TreeMap<Long, Serializable> buffered = new TreeMap<>();
+		private long lastHeard;
+		// the sender was asked to restart the channel, none of its messages are delivered
+		private boolean restarting;
+	}
+
+	private final Transport transport;
+	private final int window;
+	// channel state, guarded by the monitor
+	private final Map<InetSocketAddress, Outbound> outbound = new HashMap<>();
+	private final Map<InetSocketAddress, Inbound> inbound = new HashMap<>();
+	// channel ids must grow across restarts of a tank on the same port
+	private long nextChannel = System.currentTimeMillis() << 20;
+	private volatile UndeliverableHandler undeliverableHandler = (peer, payload) -> System.out
+			.println("Dropping undeliverable " + payload + " for " + peer);
+	private volatile StallHandler stallHandler = peer -> {
+	};
+	private final ScheduledFuture<?> sweep;
+
+	// statistics, guarded by the monitor
+	private long sentCount = 0;
+	private long retransmitCount = 0;
+	private long duplicateCount = 0;
+
+	ReliableTransfer(Transport transport, int window) {
+		this.transport = transport;
+		this.window = window;
+		sweep = retransmitter.scheduleWithFixedDelay(this::retransmitExpired, SWEEP_MILLIS, SWEEP_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	void setUndeliverableHandler(UndeliverableHandler undeliverableHandler) {
+		this.undeliverableHandler = undeliverableHandler;
+	}
+
+	void setStallHandler(StallHandler stallHandler) {
+		this.stallHandler = stallHandler;
+	}
+
+	synchronized void send(InetSocketAddress peer, Serializable payload) {
+		Outbound out = outbound.computeIfAbsent(peer, p -> new Outbound(p, nextChannel++));
+		if (out.unacked.size() >= window) {
+			out.waiting.add(payload);
+			return;
+		}
+		Pending pending = new Pending(out.nextSequence++, payload);
+		out.unacked.put(pending.sequence, pending);
+		transmit(out, pending, System.nanoTime());
+	}
+
+	private void transmit(Outbound out, Pending pending, long now) {
+		if (pending.transmissions++ == 0)
+			sentCount++;
+		else
+			retransmitCount++;
+		pending.sentAt = now;
+		pending.deadline = now + out.rto;
+		pending.missingReports = 0;
+		transport.send(out.peer, new ReliableMessage(out.channel, pending.sequence, pending.payload));
+	}
+
+	/*
+	 * Acks the message and returns the payloads that are now deliverable in order: none for
+	 * duplicates and messages after a gap, possibly several when a gap is filled.
+	 */
+	synchronized List<Serializable> receive(InetSocketAddress peer, ReliableMessage msg) {
+		Inbound in = inbound.get(peer);
+		if (in == null) {
+			in = new Inbound();
+			in.channel = msg.getChannel();
+			// the channel was forgotten while idle, or its first message is late
+			in.restarting = msg.getSequence() != 1;
+			inbound.put(peer, in);
+		}
+		in.lastHeard = System.nanoTime();
+		if (msg.getChannel() < in.channel)
+			// the sender gave this channel up and redirected its messages
+			return List.of();
+		if (msg.getChannel() > in.channel) {
+			in.channel = msg.getChannel();
+			in.cumulative = 0;
+			in.buffered.clear();
+			in.restarting = false;
+		}
+		if (in.restarting) {
+			transport.send(peer, new HandoffAck(in.channel, HandoffAck.RESTART, new long[0]));
+			return List.of();
+		}
+
+		List<Serializable> deliverable = List.of();
+		long sequence = msg.getSequence();
+		if (sequence <= in.cumulative || in.buffered.containsKey(sequence)) {
+			duplicateCount++;
+		} else if (sequence == in.cumulative + 1) {
+			deliverable = new ArrayList<>();
+			deliverable.add(msg.getPayload());
+			in.cumulative++;
+			while (!in.buffered.isEmpty() && in.buffered.firstKey() == in.cumulative + 1) {
+				deliverable.add(in.buffered.pollFirstEntry().getValue());
+				in.cumulative++;
+			}
+		} else {
+			in.buffered.put(sequence, msg.getPayload());
+		}
+
+		long[] selective = new long[Math.min(in.buffered.size(), MAX_SELECTIVE_ACKS)];
+		int n = 0;
+		for (Long buffered : in.buffered.keySet()) {
+			if (n == selective.length)
+				break;
+			selective[n++] = buffered;
+		}
+		transport.send(peer, new HandoffAck(in.channel, in.cumulative, selective));
+		return deliverable;
+	}
+
+	synchronized void onAck(InetSocketAddress peer, HandoffAck ack) {
+		Outbound out = outbound.get(peer);
+		if (out == null || ack.getChannel() != out.channel)
+			return;
+		if (ack.getCumulative() == HandoffAck.RESTART) {
+			restart(out);
+			return;
+		}
+		long now = System.nanoTime();
+		while (!out.unacked.isEmpty() && out.unacked.firstKey() <= ack.getCumulative())
+			sample(out, out.unacked.pollFirstEntry().getValue(), now);
+		for (long sequence : ack.getSelective()) {
+			Pending pending = out.unacked.remove(sequence);
+			if (pending != null)
+				sample(out, pending, now);
+		}
+
+		// a gap below selectively acked messages may only be reordering; it means loss once several
+		// acks reported it. Without a measured round trip the timeout has to do.
+		if (ack.getSelective().length > 0 && out.measured) {
+			long highest = ack.getSelective()[ack.getSelective().length - 1];
+			for (Pending pending : out.unacked.headMap(highest).values())
+				if (++pending.missingReports >= DUPLICATE_ACKS && now - pending.sentAt > out.srtt)
+					transmit(out, pending, now);
+		}
+
+		while (out.unacked.size() < window && !out.waiting.isEmpty()) {
+			Pending pending = new Pending(out.nextSequence++, out.waiting.poll());
+			out.unacked.put(pending.sequence, pending);
+			transmit(out, pending, now);
+		}
+	}
+
+	/*
+	 * Resends all unacked and waiting messages of the channel in order on a new one.
+	 */
+	private void restart(Outbound out) {
+		System.out.println("Restarting channel to " + out.peer + " with " + (out.unacked.size() + out.waiting.size())
+				+ " unacked messages");
+		outbound.remove(out.peer);
+		for (Pending pending : out.unacked.values())
+			send(out.peer, pending.payload);
+		for (Serializable payload : out.waiting)
+			send(out.peer, payload);
+	}
+
+	private static void sample(Outbound out, Pending pending, long now) {
+		if (pending.transmissions != 1)
+			return;
+		long rtt = now - pending.sentAt;
+		if (!out.measured) {
+			out.measured = true;
+			out.srtt = rtt;
+			out.rttvar = rtt / 2;
+		} else {
+			out.rttvar = (3 * out.rttvar + Math.abs(out.srtt - rtt)) / 4;
+			out.srtt = (7 * out.srtt + rtt) / 8;
+		}
+		out.rto = Math.min(MAX_RTO_NANOS, Math.max(MIN_RTO_NANOS, out.srtt + 4 * out.rttvar));
+	}
+
+	private void retransmitExpired() {
+		List<Outbound> givenUp = new ArrayList<>();
+		List<InetSocketAddress> stalledPeers = new ArrayList<>();
+		synchronized (this) {
+			long now = System.nanoTime();
+			for (Outbound out : outbound.values()) {
+				boolean backedOff = false;
+				for (Pending pending : out.unacked.values()) {
+					if (now < pending.deadline)
+						continue;
+					if (pending.transmissions >= MAX_TRANSMISSIONS) {
+						if (!out.stalled && !carriesHandoff(out)) {
+							givenUp.add(out);
+							break;
+						}
+						if (!out.stalled)
+							System.out.println("No ack from " + out.peer + " after " + MAX_TRANSMISSIONS
+									+ " transmissions, retransmitting until it acks or leaves the ring");
+						out.stalled = true;
+						if (!stalledPeers.contains(out.peer))
+							stalledPeers.add(out.peer);
+					}
+					if (!backedOff) {
+						out.rto = Math.min(MAX_RTO_NANOS, out.rto * 2);
+						backedOff = true;
+					}
+					transmit(out, pending, now);
+				}
+			}
+			for (Outbound out : givenUp)
+				outbound.remove(out.peer);
+			inbound.values().removeIf(in -> in.buffered.isEmpty() && now - in.lastHeard >= INBOUND_IDLE_NANOS);
+		}
+
+		for (Outbound out : givenUp)
+			giveUp(out);
+		for (InetSocketAddress peer : stalledPeers)
+			stallHandler.stalled(peer);
+	}
+
+	private static boolean carriesHandoff(Outbound out) {
+		for (Pending pending : out.unacked.values())
+			if (isHandoff(pending.payload))
+				return true;
+		for (Serializable payload : out.waiting)
+			if (isHandoff(payload))
+				return true;
+		return false;
+	}
+
+	private static boolean isHandoff(Serializable payload) {
+		return payload instanceof HandoffRequest || payload instanceof HandoffBatch;
+	}
+
+	/*
+	 * Gives up the channel to a peer that left the ring, so its unacked messages are routed
+	 * elsewhere instead of being retransmitted forever. The inbound channel is kept: a peer that
+	 * was only cut off continues it when it rejoins.
+	 */
+	void peerLeft(InetSocketAddress peer) {
+		Outbound out;
+		synchronized (this) {
+			out = outbound.remove(peer);
+		}
+		if (out != null)
+			giveUp(out);
+	}
+
+	/*
+	 * Must be called outside the monitor, the handler typically hands the fishies off again.
+	 */
+	private void giveUp(Outbound out) {
+		System.out.println("Giving up on " + out.peer + " with " + (out.unacked.size() + out.waiting.size())
+				+ " unacked messages");
+		for (Pending pending : out.unacked.values())
+			undeliverableHandler.undeliverable(out.peer, pending.payload);
+		for (Serializable payload : out.waiting)
+			undeliverableHandler.undeliverable(out.peer, payload);
+	}
+
+	synchronized long getSentCount() {
+		return sentCount;
+	}
+
+	synchronized long getRetransmitCount() {
+		return retransmitCount;
+	}
+
+	synchronized long getDuplicateCount() {
+		return duplicateCount;
+	}
+
+	void close() {
+		sweep.cancel(false);
+	}
+}
@@ -0,0 +1,99 @@
+package aqua.blatt1.client;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.msgtypes.SnapshotCollector;
+
+/*
+ * Chandy-Lamport bookkeeping of one tank. The incoming channels are the reliable channels from the
+ * neighbours, identified by the neighbour's address. All methods are called with the TankModel
+ * monitor held, so the recorded fishies and the handoffs counted on the channels fit together.
+ *
+ * One snapshot is recorded at a time. A snapshot that did not finish within TIMEOUT_NANOS, e.g.
+ * because a neighbour died, no longer blocks the next one.
+ */
+final class SnapshotRecorder {
+	private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private String snapshotId;
+	private long startedAt;
+	private List<FishModel> localFishies = List.of();
+	// handoffs received on a channel before its marker
+	private final Map<InetSocketAddress, List<FishModel>> inFlight = new LinkedHashMap<>();
+	// channels whose marker has not arrived yet; handoffs on them were in flight
+	private final Set<InetSocketAddress> recording = new HashSet<>();
+	private SnapshotCollector collector;
+	// markers of the last finished snapshot are late duplicates
+	private String finishedId;
+
+	boolean isRecording() {
+		return snapshotId != null;
+	}
+
+	boolean isBusy(long now) {
+		return snapshotId != null && now - startedAt < TIMEOUT_NANOS;
+	}
+
+	boolean isCurrent(String id) {
+		return id.equals(snapshotId);
+	}
+
+	boolean isFinished(String id) {
+		return id.equals(finishedId);
+	}
+
+	/*
+	 * Records the local state and starts recording the given incoming channels.
+	 */
+	void start(String id, List<FishModel> fishies, Set<InetSocketAddress> channels, long now) {
+		snapshotId = id;
+		startedAt = now;
+		localFishies = fishies;
+		inFlight.clear();
+		recording.clear();
+		recording.addAll(channels);
+		collector = null;
+	}
+
+	/*
+	 * The fishies must not be modified afterwards.
+	 */
+	void recordHandoffs(InetSocketAddress from, List<FishModel> batch) {
+		if (snapshotId != null && recording.contains(from))
+			inFlight.computeIfAbsent(from, f -> new ArrayList<>()).addAll(batch);
+	}
+
+	void markerReceived(InetSocketAddress from) {
+		recording.remove(from);
+	}
+
+	void setCollector(SnapshotCollector collector) {
+		this.collector = collector;
+	}
+
+	/*
+	 * Once the markers of all channels and the collector have arrived, returns the collector with
+	 * this tank's share added and finishes the snapshot. Returns null before that.
+	 */
+	SnapshotCollector complete(String tankId) {
+		if (snapshotId == null || !recording.isEmpty() || collector == null)
+			return null;
+		Map<String, List<FishModel>> channels = new LinkedHashMap<>();
+		inFlight.forEach((from, fishies) -> channels.put(from + "->" + tankId, fishies));
+		SnapshotCollector result = collector.add(tankId, localFishies, channels);
+		localFishies = List.of();
+		inFlight.clear();
+		finishedId = snapshotId;
+		snapshotId = null;
+		collector = null;
+		return result;
+	}
+}
@@ -1,64 +1,303 @@
 package aqua.blatt1.client;
 
+import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import aqua.blatt1.common.Direction;
 import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.Properties;
+import aqua.blatt1.common.msgtypes.DeregisterRequest;
+import aqua.blatt1.common.msgtypes.HandoffBatch;
+import aqua.blatt1.common.msgtypes.HandoffRequest;
+import aqua.blatt1.common.msgtypes.LocationUpdate;
+import aqua.blatt1.common.msgtypes.MembershipRequest;
+import aqua.blatt1.common.msgtypes.NameResolutionRequest;
+import aqua.blatt1.common.msgtypes.NameResolutionResponse;
+import aqua.blatt1.common.msgtypes.OverloadNack;
+import aqua.blatt1.common.msgtypes.RegisterRequest;
+import aqua.blatt1.common.msgtypes.SnapshotCollector;
+import aqua.blatt1.common.msgtypes.SnapshotMarker;
+import aqua.blatt1.common.msgtypes.ToggleRequest;
+import aqua.blatt1.common.msgtypes.Token;
+import aqua.blatt1.common.msgtypes.TokenEpoch;
+import aqua.blatt1.common.msgtypes.TokenReceived;
 
-public class TankModel extends Observable implements Iterable<FishModel> {
+public class TankModel implements Iterable<FishModel> {
 
 	public static final int WIDTH = 600;
 	public static final int HEIGHT = 350;
-	protected static final int MAX_FISHIES = 5;
+	protected static final int MAX_FISHIES = Properties.MAX_FISHIES;
 	protected static final Random rand = new Random();
 	protected volatile String id;
-	protected final Set<FishModel> fishies;
+	protected final FishStore fishies = new FishStore();
+	// created lazily for the first tick with at least Properties.PARALLEL_THRESHOLD fishies
+	private ParallelFishUpdater parallelUpdater;
 	protected int fishCounter = 0;
 	protected final ClientCommunicator.ClientForwarder forwarder;
+	protected final TickScheduler tickScheduler = new TickScheduler(Properties.TICK_RATE,
+			TickScheduler.Policy.valueOf(Properties.TICK_POLICY));
+
+	// listeners are notified on the EDT, headless tanks have none
+	protected final ModelChangeBus changes = new ModelChangeBus();
 
 	protected InetSocketAddress leftNeighbour = null;
 	protected InetSocketAddress rightNeighbour = null;
+	// broker incarnation and membership epoch of the neighbours, guarded by the monitor
+	private long brokerIncarnation = -1;
+	private long membershipEpoch = -1;
+
+	// one daemon thread releases the tokens and sends the heartbeats of all tanks in this JVM
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "tank-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private volatile boolean token = false;
-    private static final int TOKEN_TIMEOUT = 3000;
+	// token state, guarded by the monitor. With Properties.TOKEN_COUNT > 1 several tokens
+	// circulate and a tank may briefly hold more than one, keyed by token id.
+	private final Map<Integer, Token> heldTokens = new HashMap<>();
+	private final Map<Integer, ScheduledFuture<?>> tokenReleases = new HashMap<>();
+	// keeps the lease at the broker alive while the tank sends nothing else, and repeats
+	// unanswered name lookups
+	private ScheduledFuture<?> heartbeat;
+	// set by finish(); the broker may still evict this tank for a heartbeat it handles after the
+	// DeregisterRequest, which must not register it again
+	private volatile boolean finished;
+	// epoch of the last time the broker respaced all tokens, and per token the newest epoch and
+	// the newest sequence within it; anything older is dropped
+	private long tokenEpoch = -1;
+	private final Map<Integer, Long> tokenEpochs = new HashMap<>();
+	private final Map<Integer, Long> tokenSequences = new HashMap<>();
+	// time between two arrivals of the same token at this tank
+	private final Map<Integer, Long> lastTokenNanos = new HashMap<>();
+	private long rotationCount = 0;
+	private long rotationTotalNanos = 0;
+	private long rotationMaxNanos = 0;
+
+	// where fishies that left a tank went, guarded by the monitor
+	private final FishLocator locator;
+
+	// Chandy-Lamport snapshots, guarded by the monitor
+	private final SnapshotRecorder snapshot = new SnapshotRecorder();
+	private int snapshotCounter = 0;
+	private long snapshotStartedAt = 0;
+	private SnapshotCollector lastSnapshot;
+	private long lastSnapshotNanos = 0;
+	private long snapshotCount = 0;
+	private long snapshotTotalNanos = 0;
+
+	// simulation statistics, guarded by the monitor
+	protected long tickCount = 0;
+	protected long handoffCount = 0;
+	protected long tokenCount = 0;
 
 	public TankModel(ClientCommunicator.ClientForwarder forwarder) {
-		this.fishies = Collections.newSetFromMap(new ConcurrentHashMap<FishModel, Boolean>());
 		this.forwarder = forwarder;
+		this.locator = new FishLocator(forwarder, Properties.LOCATOR_CACHE_SIZE);
+		forwarder.setUndeliverableHandler(this::redirectHandoff);
 	}
 
-	public synchronized void setLeftNeighbour(InetSocketAddress leftNeighbour) {
-		this.leftNeighbour = leftNeighbour;
+	/*
+	 * Queues the fish for the neighbour in its direction and remembers where it went.
+	 */
+	private void handOff(FishModel fish) {
+		InetSocketAddress neighbour = fish.getDirection() == Direction.LEFT ? leftNeighbour : rightNeighbour;
+		forwarder.handOff(fish, neighbour);
+		if (neighbour != null) {
+			locator.handedOff(fish.getId(), neighbour);
+			ClientMetrics.handoffSent(fish.getId(), neighbour);
+		}
 	}
 
-	public synchronized void setRightNeighbour(InetSocketAddress rightNeighbour) {
+	/*
+	 * Hands fishies that a neighbour never acked to the current neighbour in their direction.
+	 */
+	private synchronized void redirectHandoff(InetSocketAddress peer, Serializable payload) {
+		List<FishModel> batch = switch (payload) {
+			case HandoffRequest r -> List.of(r.getFish());
+			case HandoffBatch b -> b.getFishies();
+			default -> List.of();
+		};
+		for (FishModel fish : batch)
+			handOff(fish);
+		forwarder.flushHandoffs();
+	}
+
+	/*
+	 * Applies the neighbours of the given membership epoch and returns true, or returns false if
+	 * neighbours of the same or a newer epoch were applied already. A newer broker incarnation
+	 * counts its epochs from 0 again; it replaces the epochs and tokens of the old one.
+	 */
+	/*
+	 * Returns whether neighbours of this incarnation and epoch are the ones applied last, e.g. for
+	 * a further update of the same epoch carrying more departed tanks.
+	 */
+	public synchronized boolean isCurrentMembership(long incarnation, long epoch) {
+		return incarnation == brokerIncarnation && epoch == membershipEpoch;
+	}
+
+	public synchronized boolean setNeighbours(long incarnation, long epoch, InetSocketAddress leftNeighbour,
+			InetSocketAddress rightNeighbour) {
+		if (incarnation < brokerIncarnation)
+			return false;
+		if (incarnation > brokerIncarnation) {
+			if (brokerIncarnation != -1)
+				System.out.println("Broker restarted, resetting membership and token epochs");
+			brokerIncarnation = incarnation;
+			membershipEpoch = -1;
+			tokenEpoch = -1;
+			dropTokens();
+		}
+		if (epoch <= membershipEpoch)
+			return false;
+		membershipEpoch = epoch;
+		this.leftNeighbour = leftNeighbour;
 		this.rightNeighbour = rightNeighbour;
+		return true;
 	}
 
-	public synchronized void receiveToken() {
-		this.token = true;
-        Timer timer = new Timer();
-		timer.schedule(new TimerTask() {
-			@Override
-			public void run() {
-				if (hasToken()) {
-					token = false;
-					forwarder.handoverToken(leftNeighbour);
-				}
-			}
-		}, TOKEN_TIMEOUT);
+	/*
+	 * Accepts the token for Properties.TOKEN_HOLD_MS and reports it to the broker, which
+	 * regenerates the tokens when the reports stop. Stale and duplicated tokens are dropped.
+	 */
+	synchronized void receiveToken(Token t) {
+		long epoch = tokenEpochs.getOrDefault(t.getId(), tokenEpoch);
+		if (t.getEpoch() < epoch || (t.getEpoch() == epoch
+				&& t.getSequence() <= tokenSequences.getOrDefault(t.getId(), -1L))) {
+			System.out.println("Dropping stale " + t);
+			return;
+		}
+		if (t.getEpoch() > epoch) {
+			// a regenerated token replaces an older one with the same id still held here
+			tokenEpochs.put(t.getId(), t.getEpoch());
+			lastTokenNanos.remove(t.getId());
+		}
+		tokenSequences.put(t.getId(), t.getSequence());
+		ScheduledFuture<?> previous = tokenReleases.remove(t.getId());
+		if (previous != null)
+			previous.cancel(false);
+
+		heldTokens.put(t.getId(), t);
+		token = true;
+		tokenCount++;
+		forwarder.reportToken(t);
+
+		long now = System.nanoTime();
+		Long last = lastTokenNanos.put(t.getId(), now);
+		if (last != null) {
+			long rotation = now - last;
+			rotationCount++;
+			rotationTotalNanos += rotation;
+			rotationMaxNanos = Math.max(rotationMaxNanos, rotation);
+		}
+
+		tokenReleases.put(t.getId(), scheduler.schedule(() -> releaseToken(t.getId()),
+				Properties.TOKEN_HOLD_MS, TimeUnit.MILLISECONDS));
+		changes.publish(ModelChangeBus.Change.TOKEN_CHANGED);
+	}
+
+	private synchronized void releaseToken(int tokenId) {
+		Token t = heldTokens.remove(tokenId);
+		if (t == null)
+			return;
+		tokenReleases.remove(tokenId);
+		token = !heldTokens.isEmpty();
+		Long received = lastTokenNanos.get(tokenId);
+		if (received != null)
+			ClientMetrics.tokenHeld(tokenId, System.nanoTime() - received);
+		forwarder.handoverToken(leftNeighbour, t.next());
+		changes.publish(ModelChangeBus.Change.TOKEN_CHANGED);
+	}
+
+	/*
+	 * The broker regenerated the token with the given id, or respaced all of them; tokens of an
+	 * older epoch that are still held are duplicates and are dropped without handing them over.
+	 */
+	synchronized void onTokenEpoch(long epoch, int tokenId) {
+		if (tokenId != TokenEpoch.ALL_TOKENS) {
+			if (epoch <= tokenEpochs.getOrDefault(tokenId, tokenEpoch))
+				return;
+			tokenEpochs.put(tokenId, epoch);
+			tokenSequences.remove(tokenId);
+			lastTokenNanos.remove(tokenId);
+			Token held = heldTokens.get(tokenId);
+			if (held == null || held.getEpoch() >= epoch)
+				return;
+			System.out.println("Dropping stale " + held);
+			heldTokens.remove(tokenId);
+			tokenReleases.remove(tokenId).cancel(false);
+			token = !heldTokens.isEmpty();
+			changes.publish(ModelChangeBus.Change.TOKEN_CHANGED);
+			return;
+		}
+		if (epoch <= tokenEpoch)
+			return;
+		tokenEpoch = epoch;
+		dropTokens();
+	}
+
+	/*
+	 * Forgets the epochs and sequences of all tokens and drops the ones held here.
+	 */
+	private void dropTokens() {
+		tokenEpochs.clear();
+		tokenSequences.clear();
+		lastTokenNanos.clear();
+		if (heldTokens.isEmpty())
+			return;
+		for (Token t : heldTokens.values())
+			System.out.println("Dropping stale " + t);
+		for (ScheduledFuture<?> release : tokenReleases.values())
+			release.cancel(false);
+		heldTokens.clear();
+		tokenReleases.clear();
+		token = false;
+		changes.publish(ModelChangeBus.Change.TOKEN_CHANGED);
 	}
 
 	public synchronized boolean hasToken() {
 		return this.token;
 	}
 
+	/*
+	 * Also called when the tank registered again after an eviction; it then keeps its fishies.
+	 */
 	synchronized void onRegistration(String id) {
+		boolean first = this.id == null;
 		this.id = id;
-		newFish(WIDTH - FishModel.getXSize(), rand.nextInt(HEIGHT - FishModel.getYSize()));
+		locator.setTankId(id);
+		if (heartbeat == null)
+			heartbeat = scheduler.scheduleWithFixedDelay(this::onHeartbeat, Properties.HEARTBEAT_MS,
+					Properties.HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+		changes.publish(ModelChangeBus.Change.ID_ASSIGNED);
+		if (first)
+			newFish(WIDTH - FishModel.getXSize(), rand.nextInt(HEIGHT - FishModel.getYSize()));
+	}
+
+	/*
+	 * The broker dropped this tank from the ring. Registering again is harmless if a previous
+	 * attempt already succeeded, the broker then answers with the same id. It also readmits a
+	 * recently evicted tank under its old id, so the homes of its fishies stay valid.
+	 */
+	void onEvicted() {
+		if (finished)
+			return;
+		System.out.println("Evicted by the broker, registering again");
+		forwarder.register();
+	}
+
+	private void onHeartbeat() {
+		forwarder.heartbeat();
+		synchronized (this) {
+			locator.retryLookups();
+		}
 	}
 
 	public synchronized void newFish(int x, int y) {
@@ -70,12 +309,176 @@ public class TankModel extends Observable implements Iterable<FishModel> {
 					rand.nextBoolean() ? Direction.LEFT : Direction.RIGHT);
 
 			fishies.add(fish);
+			changes.publish(ModelChangeBus.Change.FISH_ADDED);
 		}
 	}
 
-	synchronized void receiveFish(FishModel fish) {
-		fish.setToStart();
-		fishies.add(fish);
+	/*
+	 * receivedAt is the System.nanoTime() at which the receiver took the message off the socket.
+	 */
+	void receiveFish(InetSocketAddress from, FishModel fish, long receivedAt) {
+		receiveFishies(from, List.of(fish), receivedAt);
+	}
+
+	void receiveFishies(InetSocketAddress from, List<FishModel> batch, long receivedAt) {
+		long requested = System.nanoTime();
+		synchronized (this) {
+			ClientMetrics.monitorWait("receive", System.nanoTime() - requested);
+			for (FishModel fish : batch) {
+				fish.setToStart();
+				fishies.add(fish);
+				locator.arrived(fish.getId());
+				ClientMetrics.handoffReceived(fish.getId(), from, System.nanoTime() - receivedAt);
+			}
+			snapshot.recordHandoffs(from, batch);
+		}
+	}
+
+	/*
+	 * Toggles the fish wherever it is now. Fishies of other tanks are found via their home tank.
+	 */
+	public synchronized void toggleFish(String fishId) {
+		toggleFish(fishId, Properties.TOGGLE_MAX_HOPS);
+	}
+
+	synchronized void receiveToggleRequest(ToggleRequest request) {
+		toggleFish(request.getFishId(), request.getHopsLeft());
+	}
+
+	private void toggleFish(String fishId, int hopsLeft) {
+		int i = fishies.indexOf(fishId);
+		// a handed off fish only swims out of view here, the request has to follow it
+		if (i >= 0 && !FishModel.isHandedOff(fishies.getX(i), fishies.getDirection(i))) {
+			fishies.toggle(i);
+			changes.publish(ModelChangeBus.Change.FISH_MOVED);
+			return;
+		}
+		if (hopsLeft == 0) {
+			System.out.println("Giving up locating " + fishId);
+			return;
+		}
+		InetSocketAddress next = locator.next(fishId);
+		if (next != null)
+			forwarder.sendToTank(next, new ToggleRequest(fishId, hopsLeft - 1));
+		else if (!locator.isHome(fishId))
+			locator.sendToTank(FishLocator.homeOf(fishId), new ToggleRequest(fishId, hopsLeft - 1));
+		else
+			System.out.println("Unknown fish " + fishId);
+	}
+
+	synchronized void receiveLocationUpdate(InetSocketAddress from, LocationUpdate update) {
+		locator.moved(update.getFishId(), from);
+	}
+
+	synchronized void onNameResolved(NameResolutionResponse response) {
+		locator.resolved(response);
+	}
+
+	/*
+	 * The broker was too busy for a request. Name lookups are repeated by the locator with the next
+	 * heartbeat, the toggles waiting for them stay queued. Registrations, deregistrations and token
+	 * reports are sent again after a heartbeat interval.
+	 */
+	void onOverloadNack(OverloadNack nack) {
+		// both are sent again anyway, by the next lookup and by the next retransmission of a stalled channel
+		if (nack.getPayload() instanceof NameResolutionRequest || nack.getPayload() instanceof MembershipRequest)
+			return;
+		if (nack.getPayload() instanceof RegisterRequest) {
+			// a lost registration is not retried by anything else
+			scheduler.schedule(forwarder::register, Properties.HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+			return;
+		}
+		if (nack.getPayload() instanceof DeregisterRequest d) {
+			// otherwise the neighbours keep handing fishies to this tank until its lease expires
+			scheduler.schedule(() -> forwarder.deregister(d.getId()), Properties.HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+			return;
+		}
+		if (nack.getPayload() instanceof TokenReceived r) {
+			// two lost reports in a row make the broker regenerate a token that is still circulating
+			scheduler.schedule(() -> reportTokenAgain(r), Properties.HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+			return;
+		}
+		System.out.println("Broker overloaded, dropped " + nack.getPayload());
+	}
+
+	/*
+	 * Repeats a shed token report unless the token has moved on; its next holder reports it then.
+	 */
+	private synchronized void reportTokenAgain(TokenReceived report) {
+		Token t = heldTokens.get(report.getTokenId());
+		if (t != null && t.getEpoch() == report.getEpoch() && t.getSequence() == report.getSequence())
+			forwarder.reportToken(t);
+	}
+
+	/*
+	 * Starts a global snapshot with this tank as initiator; the simulation keeps running. The
+	 * result arrives asynchronously with a SNAPSHOT_TAKEN change. Returns false if this tank is
+	 * not registered yet or still records another snapshot.
+	 */
+	public synchronized boolean initiateSnapshot() {
+		long now = System.nanoTime();
+		if (id == null || snapshot.isBusy(now))
+			return false;
+		String snapshotId = id + "#" + (++snapshotCounter);
+		beginSnapshot(snapshotId, now);
+		snapshotStartedAt = now;
+		snapshot.setCollector(new SnapshotCollector(snapshotId, id));
+		forwardSnapshotCollector();
+		return true;
+	}
+
+	/*
+	 * Records the resident fishies and sends markers to the neighbours. No handoffs are queued
+	 * here, so every handoff sent before is ahead of the marker on its channel.
+	 */
+	private void beginSnapshot(String snapshotId, long now) {
+		Set<InetSocketAddress> channels = new HashSet<>();
+		if (leftNeighbour != null)
+			channels.add(leftNeighbour);
+		if (rightNeighbour != null)
+			channels.add(rightNeighbour);
+		snapshot.start(snapshotId, fishies.toResidentFishModels(), channels, now);
+		for (InetSocketAddress neighbour : channels)
+			forwarder.sendSnapshotMarker(neighbour, new SnapshotMarker(snapshotId));
+	}
+
+	synchronized void receiveSnapshotMarker(InetSocketAddress from, SnapshotMarker marker) {
+		long now = System.nanoTime();
+		if (!snapshot.isCurrent(marker.getSnapshotId())) {
+			if (snapshot.isFinished(marker.getSnapshotId()))
+				return;
+			if (snapshot.isBusy(now)) {
+				System.out.println("Ignoring marker of concurrent snapshot " + marker.getSnapshotId());
+				return;
+			}
+			beginSnapshot(marker.getSnapshotId(), now);
+		}
+		snapshot.markerReceived(from);
+		forwardSnapshotCollector();
+	}
+
+	synchronized void receiveSnapshotCollector(SnapshotCollector collector) {
+		if (!collector.getInitiator().equals(id)) {
+			snapshot.setCollector(collector);
+			forwardSnapshotCollector();
+			return;
+		}
+		lastSnapshot = collector;
+		lastSnapshotNanos = System.nanoTime() - snapshotStartedAt;
+		snapshotCount++;
+		snapshotTotalNanos += lastSnapshotNanos;
+		System.out.printf("%s after %.1f ms%n", collector, lastSnapshotNanos / 1e6);
+		changes.publish(ModelChangeBus.Change.SNAPSHOT_TAKEN);
+	}
+
+	private void forwardSnapshotCollector() {
+		SnapshotCollector collector = snapshot.complete(id);
+		if (collector != null)
+			forwarder.sendSnapshotCollector(leftNeighbour, collector);
+	}
+
+	public ModelChangeBus getChangeBus() {
+		return changes;
 	}
 
 	public String getId() {
@@ -86,54 +489,166 @@ public class TankModel extends Observable implements Iterable<FishModel> {
 		return fishCounter;
 	}
 
+	/*
+	 * Iterates over a copy of the fishies taken when the iterator is created.
+	 */
 	public synchronized Iterator<FishModel> iterator() {
-		return fishies.iterator();
+		return fishies.toFishModels().iterator();
 	}
 
 	private synchronized void updateFishies() {
-		for (Iterator<FishModel> it = iterator(); it.hasNext();) {
-			FishModel fish = it.next();
-
-			fish.update();
+		if (fishies.size() >= Properties.PARALLEL_THRESHOLD) {
+			updateFishiesParallel();
+			return;
+		}
+		for (int i = 0; i < fishies.size();) {
+			fishies.update(i);
 
-			if (fish.hitsEdge()) {
+			if (fishies.hitsEdge(i)) {
 				if (hasToken()) {
-				forwarder.handOff(fish,
-						fish.getDirection() == Direction.LEFT ? leftNeighbour : rightNeighbour);
+					handOff(fishies.toFishModel(i));
+					handoffCount++;
 				} else {
-					fish.reverse();
+					fishies.reverse(i);
 				}
 			}
 
-			if (fish.disappears())
-				it.remove();
+			if (fishies.disappears(i)) {
+				// the last fish moves into slot i and still needs its update
+				fishies.removeAt(i);
+				continue;
+			}
+			i++;
 		}
+		forwarder.flushHandoffs();
 	}
 
-	private synchronized void update() {
-		updateFishies();
-		setChanged();
-		notifyObservers();
-	}
+	/*
+	 * Same as the sequential loop in updateFishies(), but moves the fishies on the common
+	 * ForkJoinPool first and then applies handoffs, reverses and removals in slot order.
+	 */
+	private void updateFishiesParallel() {
+		if (parallelUpdater == null)
+			parallelUpdater = new ParallelFishUpdater(ForkJoinPool.commonPool());
+		parallelUpdater.update(fishies);
 
-	protected void run() {
-		forwarder.register();
+		for (int n = 0; n < parallelUpdater.getHitCount(); n++) {
+			int i = parallelUpdater.getHit(n);
+			if (hasToken()) {
+				handOff(fishies.toFishModel(i));
+				handoffCount++;
+			} else {
+				fishies.reverse(i);
+			}
+		}
+		// remove from the highest slot down, so swap-remove never moves a departing fish
+		for (int n = parallelUpdater.getDepartureCount() - 1; n >= 0; n--)
+			fishies.removeAt(parallelUpdater.getDeparture(n));
+		forwarder.flushHandoffs();
+	}
 
-		try {
-			while (!Thread.currentThread().isInterrupted()) {
-				update();
-				TimeUnit.MILLISECONDS.sleep(10);
+	private void update(int steps) {
+		long requested = System.nanoTime();
+		synchronized (this) {
+			long start = System.nanoTime();
+			ClientMetrics.monitorWait("tick", start - requested);
+			ClientMetrics.TickEvent event = new ClientMetrics.TickEvent();
+			event.begin();
+			for (int i = 0; i < steps; i++)
+				updateFishies();
+			tickCount++;
+			changes.publish(ModelChangeBus.Change.FISH_MOVED);
+			ClientMetrics.tick(System.nanoTime() - start);
+			if (event.shouldCommit()) {
+				event.steps = steps;
+				event.fishies = fishies.size();
+				event.commit();
 			}
-		} catch (InterruptedException consumed) {
-			// allow method to terminate
 		}
 	}
 
+	public synchronized long getTickCount() {
+		return tickCount;
+	}
+
+	public synchronized long getHandoffCount() {
+		return handoffCount;
+	}
+
+	public synchronized long getTokenCount() {
+		return tokenCount;
+	}
+
+	public synchronized long getTokenRotationCount() {
+		return rotationCount;
+	}
+
+	public synchronized long getAverageTokenRotationNanos() {
+		return rotationCount == 0 ? 0 : rotationTotalNanos / rotationCount;
+	}
+
+	public synchronized long getMaxTokenRotationNanos() {
+		return rotationMaxNanos;
+	}
+
+	public synchronized boolean isRecordingSnapshot() {
+		return snapshot.isRecording();
+	}
+
+	public synchronized SnapshotCollector getLastSnapshot() {
+		return lastSnapshot;
+	}
+
+	public synchronized long getLastSnapshotNanos() {
+		return lastSnapshotNanos;
+	}
+
+	public synchronized long getSnapshotCount() {
+		return snapshotCount;
+	}
+
+	public synchronized long getAverageSnapshotNanos() {
+		return snapshotCount == 0 ? 0 : snapshotTotalNanos / snapshotCount;
+	}
+
+	public synchronized int getFishCount() {
+		return fishies.size();
+	}
+
+	/*
+	 * Advances the simulation by one step. Used by drivers that schedule ticks themselves
+	 * instead of calling run().
+	 */
+	protected void tick() {
+		update(1);
+	}
+
+	void register() {
+		forwarder.register();
+	}
+
+	public TickScheduler getTickScheduler() {
+		return tickScheduler;
+	}
+
+	protected void run() {
+		register();
+		// returns when the thread is interrupted
+		tickScheduler.run(this::update);
+	}
+
 	public synchronized void finish() {
+		finished = true;
 		forwarder.deregister(id);
-		if (hasToken()) {
-			forwarder.handoverToken(leftNeighbour);
-		}
+		if (heartbeat != null)
+			heartbeat.cancel(false);
+		for (ScheduledFuture<?> release : tokenReleases.values())
+			release.cancel(false);
+		for (Token t : heldTokens.values())
+			forwarder.handoverToken(leftNeighbour, t.next());
+		heldTokens.clear();
+		tokenReleases.clear();
+		token = false;
 	}
 
 }
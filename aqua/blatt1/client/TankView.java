@@ -2,37 +2,65 @@ package aqua.blatt1.client;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.Observable;
-import java.util.Observer;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.JPanel;
-import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.Properties;
 
+/*
+ * In buffered mode (the default) model updates only mark the view dirty. A Swing timer running at
+ * Properties.RENDER_FPS picks up the current fishies, repaints just the union of the areas they
+ * left and entered, and paints into an accelerated back buffer. Fish id labels are rendered once
+ * per fish and cached. With -Daqua.render.buffered=false every model update repaints the whole
+ * panel, like before.
+ */
 @SuppressWarnings("serial")
-public class TankView extends JPanel implements Observer {
+public class TankView extends JPanel implements ModelChangeBus.Listener {
+	private static final Color BACKGROUND = new Color(175, 200, 235);
+	// RENDER_FPS clamped to what a millisecond Swing timer can do
+	private static final int FRAME_MILLIS = 1000 / Math.clamp(Properties.RENDER_FPS, 1, 1000);
+
 	private final TankModel tankModel;
 	private final FishView fishView;
-	private final Runnable repaintRunnable;
+
+	// what a fish looked like in the last frame; a fish whose sprite is unchanged is not repainted
+	private record Sprite(Rectangle bounds, Image image) {
+	}
+
+	// buffered mode state, only touched on the EDT
+	private final Map<String, Sprite> sprites = new HashMap<>();
+	private final Map<String, BufferedImage> labelCache = new HashMap<>();
+	private List<FishModel> frame = new ArrayList<>();
+	private boolean frameHasToken;
+	private int labelAscent;
+	private VolatileImage backBuffer;
+	private volatile boolean dirty = true;
+	// runs while the view is displayable, null in unbuffered mode
+	private final Timer frameTimer;
 
 	public TankView(final TankModel tankModel) {
 		this.tankModel = tankModel;
 		fishView = new FishView();
 
-		repaintRunnable = new Runnable() {
-			@Override
-			public void run() {
-				repaint();
-			}
-		};
-
 		setPreferredSize(new Dimension(TankModel.WIDTH, TankModel.HEIGHT));
-		setBackground(new Color(175, 200, 235));
+		setBackground(BACKGROUND);
 
 		addMouseListener(new MouseAdapter() {
 			@Override
@@ -40,6 +68,35 @@ public class TankView extends JPanel implements Observer {
 				tankModel.newFish(e.getX(), e.getY());
 			}
 		});
+
+		if (Properties.BUFFERED_RENDERING) {
+			frameTimer = new Timer(FRAME_MILLIS, e -> nextFrame());
+			frameTimer.setCoalesce(true);
+		} else {
+			frameTimer = null;
+		}
+	}
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		if (frameTimer != null)
+			frameTimer.start();
+	}
+
+	/*
+	 * Called when the window is disposed; stops the frame timer so it does not keep the EDT busy, and
+	 * drops the back buffer.
+	 */
+	@Override
+	public void removeNotify() {
+		if (frameTimer != null)
+			frameTimer.stop();
+		if (backBuffer != null) {
+			backBuffer.flush();
+			backBuffer = null;
+		}
+		super.removeNotify();
 	}
 
 	@SuppressWarnings("unused")
@@ -61,14 +118,147 @@ public class TankView extends JPanel implements Observer {
 		}
 	}
 
+	/*
+	 * Takes the current fishies from the model and schedules a repaint of everything that changed
+	 * since the previous frame.
+	 */
+	private void nextFrame() {
+		if (!dirty)
+			return;
+		dirty = false;
+
+		List<FishModel> fishies = new ArrayList<>();
+		for (FishModel fishModel : tankModel)
+			fishies.add(fishModel);
+		boolean hasToken = tankModel.hasToken();
+
+		Rectangle damage = null;
+		Map<String, Sprite> previous = new HashMap<>(sprites);
+		sprites.clear();
+		for (FishModel fishModel : fishies) {
+			Sprite sprite = new Sprite(boundsOf(fishModel), fishView.getImage(fishModel));
+			sprites.put(fishModel.getId(), sprite);
+			Sprite old = previous.remove(fishModel.getId());
+			if (sprite.equals(old))
+				continue;
+			damage = union(damage, sprite.bounds());
+			if (old != null)
+				damage = union(damage, old.bounds());
+		}
+		// fishies that left the tank
+		for (Map.Entry<String, Sprite> gone : previous.entrySet()) {
+			damage = union(damage, gone.getValue().bounds());
+			labelCache.remove(gone.getKey());
+		}
+
+		frame = fishies;
+		if (hasToken != frameHasToken) {
+			frameHasToken = hasToken;
+			repaint();
+		} else if (damage != null) {
+			repaint(damage);
+		}
+	}
+
+	private static Rectangle union(Rectangle a, Rectangle b) {
+		return a == null ? b : b == null ? a : a.union(b);
+	}
+
+	private Rectangle boundsOf(FishModel fishModel) {
+		Image image = fishView.getImage(fishModel);
+		int height = Math.max(image.getHeight(this), FishModel.getYSize());
+		BufferedImage label = label(fishModel.getId());
+		int labelTop = fishModel.getY() - labelAscent;
+		Rectangle bounds = new Rectangle(fishModel.getX(), fishModel.getY(), FishModel.getXSize(), height);
+		bounds.add(new Rectangle(fishModel.getX(), labelTop, label.getWidth(), label.getHeight()));
+		return bounds;
+	}
+
+	/*
+	 * Returns the cached image of the fish's id label. Drawn at (x, y - labelAscent) it matches
+	 * drawString(id, x, y).
+	 */
+	private BufferedImage label(String id) {
+		BufferedImage label = labelCache.get(id);
+		if (label == null) {
+			FontMetrics metrics = getFontMetrics(getFont());
+			labelAscent = metrics.getAscent();
+			label = new BufferedImage(Math.max(1, metrics.stringWidth(id)),
+					metrics.getAscent() + metrics.getDescent(), BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = label.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT);
+			g.setFont(getFont());
+			g.setColor(getForeground());
+			g.drawString(id, 0, metrics.getAscent());
+			g.dispose();
+			labelCache.put(id, label);
+		}
+		return label;
+	}
+
+	private void drawBuffered(Graphics g) {
+		do {
+			if (backBuffer == null
+					|| backBuffer.validate(getGraphicsConfiguration()) == VolatileImage.IMAGE_INCOMPATIBLE) {
+				backBuffer = createVolatileImage(TankModel.WIDTH, TankModel.HEIGHT);
+				if (backBuffer == null) {
+					// not displayable yet
+					doDrawing(g);
+					return;
+				}
+			}
+
+			Rectangle clip = g.getClipBounds();
+			if (clip == null)
+				clip = new Rectangle(0, 0, TankModel.WIDTH, TankModel.HEIGHT);
+			Graphics2D g2d = backBuffer.createGraphics();
+			g2d.setClip(clip);
+			g2d.setColor(BACKGROUND);
+			g2d.fillRect(clip.x, clip.y, clip.width, clip.height);
+			g2d.setColor(getForeground());
+			for (FishModel fishModel : frame) {
+				Sprite sprite = sprites.get(fishModel.getId());
+				if (sprite != null && !sprite.bounds().intersects(clip))
+					continue;
+				g2d.drawImage(fishView.getImage(fishModel), fishModel.getX(), fishModel.getY(), null);
+				BufferedImage label = label(fishModel.getId());
+				g2d.drawImage(label, fishModel.getX(), fishModel.getY() - labelAscent, null);
+			}
+			if (!frameHasToken)
+				drawBorders(g2d);
+			g2d.dispose();
+
+			g.drawImage(backBuffer, 0, 0, null);
+		} while (backBuffer.contentsLost());
+	}
+
 	@Override
 	public void paintComponent(Graphics g) {
-		super.paintComponent(g);
-		doDrawing(g);
+		ClientMetrics.FrameEvent event = new ClientMetrics.FrameEvent();
+		event.begin();
+		long start = System.nanoTime();
+		if (Properties.BUFFERED_RENDERING) {
+			drawBuffered(g);
+		} else {
+			super.paintComponent(g);
+			doDrawing(g);
+		}
+		ClientMetrics.frame(System.nanoTime() - start);
+		if (event.shouldCommit()) {
+			event.buffered = Properties.BUFFERED_RENDERING;
+			event.commit();
+		}
 	}
 
+	/*
+	 * Runs on the EDT, at most once per batch of coalesced model changes.
+	 */
 	@Override
-	public void update(Observable o, Object arg) {
-		SwingUtilities.invokeLater(repaintRunnable);
+	public void modelChanged(EnumSet<ModelChangeBus.Change> changes) {
+		if (Properties.BUFFERED_RENDERING) {
+			dirty = true;
+			return;
+		}
+		repaint();
 	}
 }
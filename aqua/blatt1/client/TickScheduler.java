@@ -0,0 +1,139 @@
+package aqua.blatt1.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Fixed-rate tick loop. Tick deadlines are computed from the start time, not from the end of the
+ * previous tick, so the rate does not drift with the time spent in a tick. When a tick overruns,
+ * the policy decides how the simulation keeps up with wall-clock time:
+ *
+ * CATCH_UP runs the missed ticks back to back (at most maxCatchUp of them; anything beyond that
+ * is folded into the step count of the next tick).
+ * SKIP drops the missed ticks and instead passes the number of elapsed periods as step count
+ * to the next tick.
+ *
+ * Either way the simulation advances by one step per elapsed period, so simulated speed does not
+ * depend on machine load.
+ */
+public class TickScheduler {
+	public enum Policy {
+		CATCH_UP, SKIP
+	}
+
+	public interface Tick {
+		void run(int steps);
+	}
+
+	private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final int MAX_CATCH_UP = 5;
+
+	private final long periodNanos;
+	private final Policy policy;
+
+	private volatile long tickCount;
+	private volatile long overrunCount;
+	private volatile long skippedCount;
+	private volatile long lastTickNanos;
+	private volatile long maxTickNanos;
+	private volatile long totalTickNanos;
+
+	public TickScheduler(int ticksPerSecond, Policy policy) {
+		this.periodNanos = TimeUnit.SECONDS.toNanos(1) / ticksPerSecond;
+		this.policy = policy;
+	}
+
+	/*
+	 * Runs ticks until the calling thread is interrupted.
+	 */
+	public void run(Tick tick) {
+		long next = System.nanoTime();
+		long nextReport = next + REPORT_INTERVAL_NANOS;
+		long reportedOverruns = 0;
+		int steps = 1;
+		int catchUp = 0;
+
+		while (!Thread.currentThread().isInterrupted()) {
+			long start = System.nanoTime();
+			tick.run(steps);
+			long duration = System.nanoTime() - start;
+			record(duration);
+			if (duration > periodNanos)
+				overrunCount++;
+
+			next += steps * periodNanos;
+			steps = 1;
+			long now = System.nanoTime();
+			if (now < next) {
+				catchUp = 0;
+				LockSupport.parkNanos(next - now);
+			} else {
+				long missed = (now - next) / periodNanos;
+				if (policy == Policy.SKIP || catchUp >= MAX_CATCH_UP) {
+					// run the missed periods as extra steps of the next tick instead of extra ticks
+					steps += (int) missed;
+					skippedCount += missed;
+					catchUp = 0;
+				} else {
+					catchUp++;
+				}
+			}
+
+			if (now >= nextReport) {
+				if (overrunCount > reportedOverruns)
+					System.out.println("Tank can't keep up: " + this);
+				reportedOverruns = overrunCount;
+				nextReport = now + REPORT_INTERVAL_NANOS;
+			}
+		}
+	}
+
+	private void record(long duration) {
+		tickCount++;
+		lastTickNanos = duration;
+		totalTickNanos += duration;
+		if (duration > maxTickNanos)
+			maxTickNanos = duration;
+	}
+
+	public long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	public long getTickCount() {
+		return tickCount;
+	}
+
+	/*
+	 * Number of ticks that took longer than one period.
+	 */
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+
+	/*
+	 * Number of periods that were folded into a later tick's step count.
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	public long getLastTickNanos() {
+		return lastTickNanos;
+	}
+
+	public long getMaxTickNanos() {
+		return maxTickNanos;
+	}
+
+	public long getAverageTickNanos() {
+		long ticks = tickCount;
+		return ticks == 0 ? 0 : totalTickNanos / ticks;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d ticks, %d overruns, %d skipped, avg %.2f ms, max %.2f ms", tickCount,
+				overrunCount, skippedCount, getAverageTickNanos() / 1e6, maxTickNanos / 1e6);
+	}
+}
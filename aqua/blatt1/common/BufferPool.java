@@ -0,0 +1,37 @@
+package aqua.blatt1.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * Pool of equally sized direct byte buffers, so encoding a datagram does not allocate.
+ * Buffers are handed out cleared; at most maxPooled released buffers are retained.
+ */
+public class BufferPool {
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final int bufferSize;
+	private final int maxPooled;
+
+	public BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		buffer.clear();
+		return buffer;
+	}
+
+	public void release(ByteBuffer buffer) {
+		// size() is O(n) on ConcurrentLinkedQueue, but the pool is small
+		if (buffer.capacity() == bufferSize && buffers.size() < maxPooled)
+			buffers.offer(buffer);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
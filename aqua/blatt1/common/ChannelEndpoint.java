@@ -0,0 +1,213 @@
+package aqua.blatt1.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import messaging.Message;
+import aqua.blatt1.common.msgtypes.MessageCodec;
+
+/*
+ * Drop-in replacement for messaging.Endpoint built on a selector-driven DatagramChannel.
+ * blockingReceive() parks the calling thread until a datagram arrives or wakeup() is called,
+ * so an idle receive loop does not burn CPU.
+ *
+ * With the binary codec enabled, payloads MessageCodec supports are encoded into pooled direct
+ * buffers; everything else is sent as one serialized object per datagram like messaging.Endpoint.
+ * Both formats are always accepted on receive, so it can still talk to messaging.Endpoint.
+ *
+ * Like messaging.Endpoint, send() blocks while the socket send buffer is full, but at most for
+ * SEND_TIMEOUT_MILLIS; a datagram that still does not fit is logged, counted and dropped.
+ */
+public class ChannelEndpoint implements Transport {
+	// large enough for a full HandoffBatch even when it falls back to Java serialization
+	private static final int BUFFER_SIZE = 8192;
+	private static final BufferPool sendBuffers = new BufferPool(BUFFER_SIZE, 32);
+	private static final long SEND_TIMEOUT_MILLIS = 1000;
+
+	private final DatagramChannel channel;
+	private final Selector selector;
+	// only waited on by senders, while holding the channel's monitor
+	private final Selector writeSelector;
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final boolean binary;
+	private final LongAdder malformed = new LongAdder();
+	private final LongAdder droppedSends = new LongAdder();
+
+	public ChannelEndpoint() {
+		this(0);
+	}
+
+	public ChannelEndpoint(int port) {
+		this(port, Properties.BINARY_CODEC);
+	}
+
+	public ChannelEndpoint(int port, boolean binary) {
+		this.binary = binary;
+		try {
+			channel = DatagramChannel.open();
+			channel.bind(new InetSocketAddress(port));
+			channel.configureBlocking(false);
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+			writeSelector = Selector.open();
+			channel.register(writeSelector, SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * Asks the OS for a larger socket receive buffer, so bursts of datagrams are queued instead of
+	 * dropped while the receiver is busy. The OS may cap the size.
+	 */
+	public void setReceiveBufferSize(int bytes) {
+		try {
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, bytes);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void send(InetSocketAddress receiver, Serializable payload) {
+		if (binary && MessageCodec.supports(payload)) {
+			ByteBuffer buffer = sendBuffers.acquire();
+			try {
+				MessageCodec.encode(payload, buffer);
+				buffer.flip();
+				send(buffer, receiver);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				sendBuffers.release(buffer);
+			}
+			return;
+		}
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(payload);
+			send(ByteBuffer.wrap(bos.toByteArray()), receiver);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * The non-blocking channel sends nothing and returns 0 while the socket send buffer is full.
+	 */
+	private void send(ByteBuffer datagram, InetSocketAddress receiver) throws IOException {
+		synchronized (channel) {
+			long deadline = 0;
+			while (channel.send(datagram, receiver) == 0) {
+				long now = System.nanoTime();
+				if (deadline == 0)
+					deadline = now + TimeUnit.MILLISECONDS.toNanos(SEND_TIMEOUT_MILLIS);
+				if (now >= deadline) {
+					droppedSends.increment();
+					System.out.printf("Dropping datagram to %s, send buffer full for %d ms%n", receiver,
+							SEND_TIMEOUT_MILLIS);
+					return;
+				}
+				writeSelector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now)));
+				writeSelector.selectedKeys().clear();
+			}
+		}
+	}
+
+	/*
+	 * Blocks until a datagram is available. Returns null if the endpoint was woken up
+	 * via wakeup() or closed before anything arrived.
+	 */
+	public Message blockingReceive() {
+		try {
+			Message msg = nonBlockingReceive();
+			if (msg != null || !selector.isOpen())
+				return msg;
+			selector.select();
+			selector.selectedKeys().clear();
+			return nonBlockingReceive();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * Returns the next well-formed datagram, or null if none is waiting. Datagrams that cannot be
+	 * decoded (stray traffic, truncated frames, other codec versions) are logged, counted and dropped.
+	 */
+	public synchronized Message nonBlockingReceive() {
+		while (true) {
+			InetSocketAddress sender;
+			try {
+				if (!channel.isOpen())
+					return null;
+				receiveBuffer.clear();
+				sender = (InetSocketAddress) channel.receive(receiveBuffer);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			if (sender == null)
+				return null;
+			receiveBuffer.flip();
+			try {
+				return new Message(decode(receiveBuffer), sender);
+			} catch (RuntimeException | IOException | ClassNotFoundException e) {
+				malformed.increment();
+				System.out.printf("Dropping malformed datagram from %s: %s%n", sender, e);
+			}
+		}
+	}
+
+	private static Serializable decode(ByteBuffer in) throws IOException, ClassNotFoundException {
+		if (MessageCodec.isFrame(in))
+			return MessageCodec.decode(in);
+		byte[] data = new byte[in.remaining()];
+		in.get(data);
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+		return (Serializable) ois.readObject();
+	}
+
+	/*
+	 * Number of received datagrams that were dropped because they could not be decoded.
+	 */
+	public long getMalformedCount() {
+		return malformed.sum();
+	}
+
+	/*
+	 * Number of datagrams send() dropped because the socket send buffer stayed full.
+	 */
+	public long getDroppedSendCount() {
+		return droppedSends.sum();
+	}
+
+	/*
+	 * Makes a thread parked in blockingReceive() return immediately.
+	 */
+	public void wakeup() {
+		selector.wakeup();
+	}
+
+	@Override
+	public void close() {
+		try {
+			selector.close();
+			writeSelector.close();
+			channel.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
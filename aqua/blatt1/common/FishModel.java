@@ -2,6 +2,7 @@ package aqua.blatt1.common;
 
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import aqua.blatt1.client.TankModel;
 
@@ -9,7 +10,6 @@ import aqua.blatt1.client.TankModel;
 public final class FishModel implements Serializable {
 	private final static int xSize = 100;
 	private final static int ySize = 50;
-	private final static Random rand = new Random();
 
 	private final String id;
 	private int x;
@@ -66,27 +66,20 @@ public final class FishModel implements Serializable {
 	}
 
 	public boolean hitsEdge() {
-		return (direction == Direction.LEFT && x == 0)
-				|| (direction == Direction.RIGHT && x == TankModel.WIDTH - xSize);
+		return hitsEdge(x, direction);
 	}
 
 	public boolean disappears() {
-		return (direction == Direction.LEFT && x == -xSize)
-				|| (direction == Direction.RIGHT && x == TankModel.WIDTH);
+		return disappears(x, direction);
 	}
 
 	public void update() {
 		x += direction.getVector();
-
-		double discreteSin = Math.round(Math.sin(x / 30.0));
-		discreteSin = rand.nextInt(10) < 8 ? 0 : discreteSin;
-		y += discreteSin;
-		y = y < 0 ? 0 : y > TankModel.HEIGHT - FishModel.getYSize() ? TankModel.HEIGHT
-				- FishModel.getYSize() : y;
+		y = nextY(x, y, ThreadLocalRandom.current());
 	}
 
 	public void setToStart() {
-		x = direction == Direction.LEFT ? TankModel.WIDTH : -xSize;
+		x = startX(direction);
 	}
 
 	public boolean isDeparting() {
@@ -94,4 +87,43 @@ public final class FishModel implements Serializable {
 				|| (direction == Direction.RIGHT && x > TankModel.WIDTH - xSize);
 	}
 
+	/*
+	 * The static variants below implement the fish movement rules on plain values, so they can be
+	 * shared with stores that do not keep FishModel objects around.
+	 */
+
+	public static boolean hitsEdge(int x, Direction direction) {
+		return (direction == Direction.LEFT && x == 0)
+				|| (direction == Direction.RIGHT && x == TankModel.WIDTH - xSize);
+	}
+
+	public static boolean disappears(int x, Direction direction) {
+		return (direction == Direction.LEFT && x == -xSize)
+				|| (direction == Direction.RIGHT && x == TankModel.WIDTH);
+	}
+
+	/*
+	 * A fish at or beyond the edge it swims towards has been handed off (a tank without the token
+	 * reverses it at the edge) and only stays in the tank until it is out of view.
+	 */
+	public static boolean isHandedOff(int x, Direction direction) {
+		return (direction == Direction.LEFT && x <= 0)
+				|| (direction == Direction.RIGHT && x >= TankModel.WIDTH - xSize);
+	}
+
+	/*
+	 * Returns the y position after the fish has moved to x.
+	 */
+	public static int nextY(int x, int y, Random rand) {
+		double discreteSin = Math.round(Math.sin(x / 30.0));
+		discreteSin = rand.nextInt(10) < 8 ? 0 : discreteSin;
+		y += discreteSin;
+		return y < 0 ? 0 : y > TankModel.HEIGHT - FishModel.getYSize() ? TankModel.HEIGHT
+				- FishModel.getYSize() : y;
+	}
+
+	public static int startX(Direction direction) {
+		return direction == Direction.LEFT ? TankModel.WIDTH : -xSize;
+	}
+
 }
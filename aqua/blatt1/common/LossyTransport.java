@@ -0,0 +1,81 @@
+package aqua.blatt1.common;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import messaging.Message;
+
+/*
+ * Decorates a Transport with simulated network faults for testing. Every sent datagram the filter
+ * selects is dropped, duplicated or delayed with the given probabilities. Delayed datagrams are
+ * sent up to MAX_DELAY_MS later, so datagrams sent in between overtake them. Receiving is passed through unchanged.
+ */
+public class LossyTransport implements Transport {
+	private static final int MAX_DELAY_MS = 20;
+
+	// one daemon thread sends the delayed datagrams of all lossy transports in this JVM
+	private static final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "lossy-transport");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Transport transport;
+	private final double drop;
+	private final double duplicate;
+	private final double reorder;
+	private final Predicate<Serializable> filter;
+
+	public LossyTransport(Transport transport, double drop, double duplicate, double reorder,
+			Predicate<Serializable> filter) {
+		this.transport = transport;
+		this.drop = drop;
+		this.duplicate = duplicate;
+		this.reorder = reorder;
+		this.filter = filter;
+	}
+
+	@Override
+	public void send(InetSocketAddress receiver, Serializable payload) {
+		if (!filter.test(payload)) {
+			transport.send(receiver, payload);
+			return;
+		}
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		if (rand.nextDouble() < drop)
+			return;
+		int copies = rand.nextDouble() < duplicate ? 2 : 1;
+		for (int i = 0; i < copies; i++) {
+			if (rand.nextDouble() < reorder)
+				delayer.schedule(() -> transport.send(receiver, payload), rand.nextInt(1, MAX_DELAY_MS + 1),
+						TimeUnit.MILLISECONDS);
+			else
+				transport.send(receiver, payload);
+		}
+	}
+
+	@Override
+	public Message blockingReceive() {
+		return transport.blockingReceive();
+	}
+
+	@Override
+	public Message nonBlockingReceive() {
+		return transport.nonBlockingReceive();
+	}
+
+	@Override
+	public void wakeup() {
+		transport.wakeup();
+	}
+
+	@Override
+	public void close() {
+		transport.close();
+	}
+}
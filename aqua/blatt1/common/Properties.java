@@ -4,4 +4,51 @@ public class Properties {
 	public final static String HOST = "localhost";
 	public final static int PORT = 4711;
 	public final static String BROKER_NAME = "AquaBroker";
+	// broker dispatch mode: "striped" (ordered per-sender lanes) or "virtual" (virtual thread per task)
+	public final static String BROKER_DISPATCH = System.getProperty("aqua.broker.dispatch", "striped");
+	public final static int BROKER_MAX_IN_FLIGHT = Integer.getInteger("aqua.broker.maxInFlight", 1024);
+	// broker dispatch lanes and bounded queue size per lane
+	public final static int BROKER_LANES = Integer.getInteger("aqua.broker.lanes", 8);
+	public final static int BROKER_LANE_CAPACITY = Integer.getInteger("aqua.broker.laneCapacity", 1024);
+	// socket receive buffer of the broker, so a registration storm is queued rather than dropped
+	public final static int BROKER_RECEIVE_BUFFER = Integer.getInteger("aqua.broker.receiveBuffer", 4 << 20);
+	// directory of the broker's membership journal, empty disables it; and the size of the mapped log
+	public final static String BROKER_JOURNAL = System.getProperty("aqua.broker.journal", "");
+	public final static int BROKER_JOURNAL_SIZE = Integer.getInteger("aqua.broker.journalSize", 64 << 20);
+	// membership changes within this window are published together; must be positive, see MembershipBatcher
+	public final static int MEMBERSHIP_BATCH_MS = Integer.getInteger("aqua.broker.membershipBatch", 20);
+	// what the broker does with a handoff or lookup it has no room for: DROP_OLDEST or NACK
+	public final static String BROKER_OVERLOAD_POLICY = System.getProperty("aqua.broker.overload", "DROP_OLDEST");
+	// local port of the broker's Prometheus metrics endpoint, 0 disables it (JMX is always on)
+	public final static int BROKER_METRICS_PORT = Integer.getInteger("aqua.broker.metricsPort", 9471);
+	// fishies a tank spawns at most by itself
+	public final static int MAX_FISHIES = Integer.getInteger("aqua.maxFishies", 5);
+	// tanks with at least this many fishies update them in parallel
+	public final static int PARALLEL_THRESHOLD = Integer.getInteger("aqua.parallelThreshold", 10_000);
+	// client simulation ticks per second and what to do when a tank falls behind
+	public final static int TICK_RATE = Integer.getInteger("aqua.tick.rate", 100);
+	// CATCH_UP or SKIP, see TickScheduler.Policy
+	public final static String TICK_POLICY = System.getProperty("aqua.tick.policy", "CATCH_UP");
+	// how long a tank keeps the token, and after how long without a TokenReceived the broker regenerates it
+	public final static int TOKEN_HOLD_MS = Integer.getInteger("aqua.token.hold", 3000);
+	public final static int TOKEN_LOSS_MS = Integer.getInteger("aqua.token.lossTimeout", 2 * TOKEN_HOLD_MS + 1000);
+	// tokens circulating at once; the broker runs at most one per two tanks so holders are never adjacent
+	public final static int TOKEN_COUNT = Integer.getInteger("aqua.token.count", 1);
+	// tanks the broker heard nothing from for LEASE_MS are evicted; idle tanks send a heartbeat every HEARTBEAT_MS
+	public final static int LEASE_MS = Integer.getInteger("aqua.lease.timeout", 5000);
+	public final static int HEARTBEAT_MS = Integer.getInteger("aqua.lease.heartbeat", LEASE_MS / 5);
+	// handoff messages in flight per neighbour before further ones wait for acks
+	public final static int HANDOFF_WINDOW = Integer.getInteger("aqua.handoff.window", 64);
+	// probabilities to drop, duplicate and reorder a client's handoff datagrams, for testing
+	public final static double LOSS_DROP = Double.parseDouble(System.getProperty("aqua.loss.drop", "0"));
+	public final static double LOSS_DUPLICATE = Double.parseDouble(System.getProperty("aqua.loss.duplicate", "0"));
+	public final static double LOSS_REORDER = Double.parseDouble(System.getProperty("aqua.loss.reorder", "0"));
+	// entries of the fish locator's caches, and how often a toggle request is forwarded at most
+	public final static int LOCATOR_CACHE_SIZE = Integer.getInteger("aqua.locator.cacheSize", 1024);
+	public final static int TOGGLE_MAX_HOPS = Integer.getInteger("aqua.locator.maxHops", 8);
+	// TankView repaints only what changed, at most RENDER_FPS (clamped to 1..1000) times per second
+	public final static boolean BUFFERED_RENDERING = Boolean.parseBoolean(System.getProperty("aqua.render.buffered", "true"));
+	public final static int RENDER_FPS = Integer.getInteger("aqua.render.fps", 60);
+	// -Daqua.codec.binary=false falls back to plain Java serialization for all messages
+	public final static boolean BINARY_CODEC = Boolean.parseBoolean(System.getProperty("aqua.codec.binary", "true"));
 }
@@ -0,0 +1,30 @@
+package aqua.blatt1.common;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+import messaging.Message;
+
+/*
+ * Unreliable datagram transport as seen by clients and broker. ChannelEndpoint is the real
+ * implementation; LossyTransport wraps one to simulate a bad network.
+ */
+public interface Transport extends AutoCloseable {
+	void send(InetSocketAddress receiver, Serializable payload);
+
+	/*
+	 * Blocks until a datagram is available. Returns null if the transport was woken up via
+	 * wakeup() or closed before anything arrived.
+	 */
+	Message blockingReceive();
+
+	Message nonBlockingReceive();
+
+	/*
+	 * Makes a thread parked in blockingReceive() return immediately.
+	 */
+	void wakeup();
+
+	@Override
+	void close();
+}
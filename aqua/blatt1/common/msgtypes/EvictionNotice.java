@@ -0,0 +1,13 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Tells a tank that it is not a member of the ring (any more), e.g. because its lease expired while
+ * it was cut off. The broker sends it on eviction and in reply to heartbeats from non-members; the
+ * tank registers again.
+ */
+@SuppressWarnings("serial")
+public final class EvictionNotice implements Serializable {
+
+}
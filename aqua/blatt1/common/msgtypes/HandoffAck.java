@@ -0,0 +1,36 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Acknowledges every ReliableMessage of the channel up to and including the cumulative sequence
+ * number, plus the listed sequence numbers above it that the receiver buffered out of order. A
+ * cumulative of RESTART asks the sender to resend its unacked messages on a new channel, because
+ * the receiver has no state for this one.
+ */
+@SuppressWarnings("serial")
+public final class HandoffAck implements Serializable {
+	public static final long RESTART = -1;
+
+	private final long channel;
+	private final long cumulative;
+	private final long[] selective;
+
+	public HandoffAck(long channel, long cumulative, long[] selective) {
+		this.channel = channel;
+		this.cumulative = cumulative;
+		this.selective = selective;
+	}
+
+	public long getChannel() {
+		return channel;
+	}
+
+	public long getCumulative() {
+		return cumulative;
+	}
+
+	public long[] getSelective() {
+		return selective;
+	}
+}
@@ -0,0 +1,19 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.util.List;
+
+import aqua.blatt1.common.FishModel;
+
+@SuppressWarnings("serial")
+public final class HandoffBatch implements Serializable {
+	private final List<FishModel> fishies;
+
+	public HandoffBatch(List<FishModel> fishies) {
+		this.fishies = fishies;
+	}
+
+	public List<FishModel> getFishies() {
+		return fishies;
+	}
+}
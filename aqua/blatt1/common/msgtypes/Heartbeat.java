@@ -0,0 +1,12 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Renews a tank's lease at the broker. Tanks only send it when they sent nothing else to the
+ * broker for a while; every message from a tank renews its lease.
+ */
+@SuppressWarnings("serial")
+public final class Heartbeat implements Serializable {
+
+}
@@ -0,0 +1,19 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Tells the home tank of a fish that the fish has arrived at the sending tank.
+ */
+@SuppressWarnings("serial")
+public final class LocationUpdate implements Serializable {
+	private final String fishId;
+
+	public LocationUpdate(String fishId) {
+		this.fishId = fishId;
+	}
+
+	public String getFishId() {
+		return fishId;
+	}
+}
@@ -0,0 +1,22 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/*
+ * Asks the broker whether a tank is still in the ring, e.g. a neighbour that stopped acking
+ * handoffs while the NeighbourUpdate listing it as departed may have been lost. If it left, the
+ * broker answers with the asker's current neighbours and the tank as departed; otherwise not at all.
+ */
+@SuppressWarnings("serial")
+public final class MembershipRequest implements Serializable {
+	private final InetSocketAddress tank;
+
+	public MembershipRequest(InetSocketAddress tank) {
+		this.tank = tank;
+	}
+
+	public InetSocketAddress getTank() {
+		return tank;
+	}
+}
@@ -0,0 +1,364 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+/*
+ * Hand-written binary wire format for the message types in this package.
+ *
+ * Every frame starts with a three byte header: MAGIC, VERSION and a type tag. MAGIC can never
+ * start a Java serialization stream (0xACED), so receivers can accept both formats on the same
+ * socket. Fish are written as fixed-width fields; ids of the form "fish<n>@client<m>" (the only
+ * form TankModel creates) are packed into two ints, any other id falls back to a short string.
+ */
+public final class MessageCodec {
+	public static final byte MAGIC = (byte) 0xA7;
+	// bumped whenever the layout of an existing frame changes:
+	// 3 added the token id to TOKEN and TOKEN_RECEIVED, 4 the epoch-tagged NEIGHBOUR_UPDATE,
+	// 5 the departed tanks in NEIGHBOUR_UPDATE, 6 the recorded fishies in SNAPSHOT_COLLECTOR,
+	// 7 the token id in TOKEN_EPOCH, 8 the broker incarnation in NEIGHBOUR_UPDATE
+	public static final byte VERSION = 8;
+
+	private static final byte REGISTER_REQUEST = 1;
+	private static final byte REGISTER_RESPONSE = 2;
+	private static final byte DEREGISTER_REQUEST = 3;
+	private static final byte HANDOFF_REQUEST = 4;
+	private static final byte NEIGHBOUR_UPDATE = 5;
+	private static final byte TOKEN = 6;
+	private static final byte HANDOFF_BATCH = 7;
+	private static final byte TOKEN_RECEIVED = 8;
+	private static final byte TOKEN_EPOCH = 9;
+	private static final byte RELIABLE_MESSAGE = 10;
+	private static final byte HANDOFF_ACK = 11;
+	private static final byte SNAPSHOT_MARKER = 12;
+	private static final byte SNAPSHOT_COLLECTOR = 13;
+	private static final byte NAME_RESOLUTION_REQUEST = 14;
+	private static final byte NAME_RESOLUTION_RESPONSE = 15;
+	private static final byte LOCATION_UPDATE = 16;
+	private static final byte TOGGLE_REQUEST = 17;
+	private static final byte HEARTBEAT = 18;
+	private static final byte OVERLOAD_NACK = 19;
+	private static final byte EVICTION_NOTICE = 20;
+	private static final byte MEMBERSHIP_REQUEST = 21;
+
+	private static final byte FISH_TOGGLED = 1;
+	private static final byte FISH_COMPACT_ID = 2;
+
+	private static final String FISH_PREFIX = "fish";
+	private static final String TANK_PREFIX = "@client";
+
+	private MessageCodec() {
+	}
+
+	public static boolean supports(Serializable payload) {
+		return payload instanceof RegisterRequest || payload instanceof RegisterResponse
+				|| payload instanceof DeregisterRequest || payload instanceof HandoffRequest
+				|| payload instanceof NeighbourUpdate || payload instanceof Token
+				|| payload instanceof HandoffBatch || payload instanceof TokenReceived
+				|| payload instanceof TokenEpoch || payload instanceof HandoffAck
+				|| payload instanceof SnapshotMarker || payload instanceof SnapshotCollector
+				|| payload instanceof NameResolutionRequest || payload instanceof NameResolutionResponse
+				|| payload instanceof LocationUpdate || payload instanceof ToggleRequest
+				|| payload instanceof Heartbeat || payload instanceof EvictionNotice
+				|| payload instanceof MembershipRequest
+				|| (payload instanceof ReliableMessage m && supports(m.getPayload()))
+				|| (payload instanceof OverloadNack n && supports(n.getPayload()));
+	}
+
+	/*
+	 * Returns whether the remaining bytes of the buffer start with a codec frame.
+	 */
+	public static boolean isFrame(ByteBuffer in) {
+		return in.remaining() >= 3 && in.get(in.position()) == MAGIC;
+	}
+
+	/*
+	 * Writes the payload as one frame at the buffer's position.
+	 */
+	public static void encode(Serializable payload, ByteBuffer out) {
+		out.put(MAGIC).put(VERSION);
+		switch (payload) {
+			case RegisterRequest ignored -> out.put(REGISTER_REQUEST);
+			case RegisterResponse r -> {
+				out.put(REGISTER_RESPONSE);
+				putString(out, r.getId());
+			}
+			case DeregisterRequest r -> {
+				out.put(DEREGISTER_REQUEST);
+				putString(out, r.getId());
+			}
+			case HandoffRequest r -> {
+				out.put(HANDOFF_REQUEST);
+				putFish(out, r.getFish());
+			}
+			case NeighbourUpdate u -> {
+				out.put(NEIGHBOUR_UPDATE).putLong(u.getIncarnation()).putLong(u.getEpoch());
+				putAddress(out, u.getLeft());
+				putAddress(out, u.getRight());
+				if (u.getDeparted().size() > 255)
+					throw new IllegalArgumentException("Too many departed tanks: " + u.getDeparted().size());
+				out.put((byte) u.getDeparted().size());
+				for (InetSocketAddress departed : u.getDeparted())
+					putAddress(out, departed);
+			}
+			case Token t -> out.put(TOKEN).putLong(t.getEpoch()).putInt(t.getId()).putLong(t.getSequence());
+			case HandoffBatch b -> {
+				if (b.getFishies().size() > 255)
+					throw new IllegalArgumentException("Handoff batch too large: " + b.getFishies().size());
+				out.put(HANDOFF_BATCH).put((byte) b.getFishies().size());
+				for (FishModel fish : b.getFishies())
+					putFish(out, fish);
+			}
+			case TokenReceived r -> out.put(TOKEN_RECEIVED).putLong(r.getEpoch()).putInt(r.getTokenId())
+					.putLong(r.getSequence());
+			case TokenEpoch e -> out.put(TOKEN_EPOCH).putLong(e.getEpoch()).putInt(e.getTokenId());
+			case ReliableMessage m -> {
+				out.put(RELIABLE_MESSAGE).putLong(m.getChannel()).putLong(m.getSequence());
+				encode(m.getPayload(), out);
+			}
+			case HandoffAck a -> {
+				if (a.getSelective().length > 255)
+					throw new IllegalArgumentException("Too many selective acks: " + a.getSelective().length);
+				out.put(HANDOFF_ACK).putLong(a.getChannel()).putLong(a.getCumulative())
+						.put((byte) a.getSelective().length);
+				for (long sequence : a.getSelective())
+					out.putLong(sequence);
+			}
+			case SnapshotMarker m -> {
+				out.put(SNAPSHOT_MARKER);
+				putString(out, m.getSnapshotId());
+			}
+			case SnapshotCollector c -> {
+				out.put(SNAPSHOT_COLLECTOR);
+				putString(out, c.getSnapshotId());
+				putString(out, c.getInitiator());
+				out.putInt(c.getTanks()).putLong(c.getFishies()).putLong(c.getInFlight());
+				out.put((byte) (c.isTruncated() ? 1 : 0));
+				putFishMap(out, c.getResident());
+				putFishMap(out, c.getOnChannels());
+			}
+			case NameResolutionRequest r -> {
+				out.put(NAME_RESOLUTION_REQUEST);
+				putString(out, r.getTankId());
+			}
+			case NameResolutionResponse r -> {
+				out.put(NAME_RESOLUTION_RESPONSE);
+				putString(out, r.getTankId());
+				out.put((byte) (r.getAddress() == null ? 0 : 1));
+				if (r.getAddress() != null)
+					putAddress(out, r.getAddress());
+			}
+			case LocationUpdate u -> {
+				out.put(LOCATION_UPDATE);
+				putString(out, u.getFishId());
+			}
+			case ToggleRequest r -> {
+				out.put(TOGGLE_REQUEST);
+				putString(out, r.getFishId());
+				out.putInt(r.getHopsLeft());
+			}
+			case Heartbeat ignored -> out.put(HEARTBEAT);
+			case EvictionNotice ignored -> out.put(EVICTION_NOTICE);
+			case MembershipRequest r -> {
+				out.put(MEMBERSHIP_REQUEST);
+				putAddress(out, r.getTank());
+			}
+			case OverloadNack n -> {
+				out.put(OVERLOAD_NACK);
+				encode(n.getPayload(), out);
+			}
+			default -> throw new IllegalArgumentException("Unsupported payload: " + payload.getClass());
+		}
+	}
+
+	/*
+	 * Reads one frame starting at the buffer's position.
+	 */
+	public static Serializable decode(ByteBuffer in) {
+		if (in.get() != MAGIC)
+			throw new IllegalArgumentException("Not a codec frame");
+		byte version = in.get();
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unsupported codec version " + version);
+		byte tag = in.get();
+		return switch (tag) {
+			case REGISTER_REQUEST -> new RegisterRequest();
+			case REGISTER_RESPONSE -> new RegisterResponse(getString(in));
+			case DEREGISTER_REQUEST -> new DeregisterRequest(getString(in));
+			case HANDOFF_REQUEST -> new HandoffRequest(getFish(in));
+			case NEIGHBOUR_UPDATE -> {
+				long incarnation = in.getLong();
+				long epoch = in.getLong();
+				InetSocketAddress left = getAddress(in);
+				InetSocketAddress right = getAddress(in);
+				int count = in.get() & 0xFF;
+				List<InetSocketAddress> departed = new ArrayList<>(count);
+				for (int i = 0; i < count; i++)
+					departed.add(getAddress(in));
+				yield new NeighbourUpdate(incarnation, epoch, left, right, departed);
+			}
+			case TOKEN -> new Token(in.getLong(), in.getInt(), in.getLong());
+			case HANDOFF_BATCH -> {
+				int count = in.get() & 0xFF;
+				List<FishModel> fishies = new ArrayList<>(count);
+				for (int i = 0; i < count; i++)
+					fishies.add(getFish(in));
+				yield new HandoffBatch(fishies);
+			}
+			case TOKEN_RECEIVED -> new TokenReceived(in.getLong(), in.getInt(), in.getLong());
+			case TOKEN_EPOCH -> new TokenEpoch(in.getLong(), in.getInt());
+			case RELIABLE_MESSAGE -> new ReliableMessage(in.getLong(), in.getLong(), decode(in));
+			case HANDOFF_ACK -> {
+				long channel = in.getLong();
+				long cumulative = in.getLong();
+				long[] selective = new long[in.get() & 0xFF];
+				for (int i = 0; i < selective.length; i++)
+					selective[i] = in.getLong();
+				yield new HandoffAck(channel, cumulative, selective);
+			}
+			case SNAPSHOT_MARKER -> new SnapshotMarker(getString(in));
+			case SNAPSHOT_COLLECTOR -> {
+				String snapshotId = getString(in);
+				String initiator = getString(in);
+				int tanks = in.getInt();
+				long fishies = in.getLong();
+				long inFlight = in.getLong();
+				boolean truncated = in.get() != 0;
+				yield new SnapshotCollector(snapshotId, initiator, tanks, fishies, inFlight, getFishMap(in),
+						getFishMap(in), truncated);
+			}
+			case NAME_RESOLUTION_REQUEST -> new NameResolutionRequest(getString(in));
+			case NAME_RESOLUTION_RESPONSE -> new NameResolutionResponse(getString(in), in.get() == 0 ? null : getAddress(in));
+			case LOCATION_UPDATE -> new LocationUpdate(getString(in));
+			case TOGGLE_REQUEST -> new ToggleRequest(getString(in), in.getInt());
+			case HEARTBEAT -> new Heartbeat();
+			case EVICTION_NOTICE -> new EvictionNotice();
+			case MEMBERSHIP_REQUEST -> new MembershipRequest(getAddress(in));
+			case OVERLOAD_NACK -> new OverloadNack(decode(in));
+			default -> throw new IllegalArgumentException("Unknown message tag " + tag);
+		};
+	}
+
+	/*
+	 * At most SnapshotCollector.MAX_RECORDED_FISHIES fishies, so both counts fit a byte.
+	 */
+	private static void putFishMap(ByteBuffer out, Map<String, List<FishModel>> map) {
+		out.put((byte) map.size());
+		map.forEach((key, fishies) -> {
+			putString(out, key);
+			out.put((byte) fishies.size());
+			for (FishModel fish : fishies)
+				putFish(out, fish);
+		});
+	}
+
+	private static Map<String, List<FishModel>> getFishMap(ByteBuffer in) {
+		int size = in.get() & 0xFF;
+		Map<String, List<FishModel>> map = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) {
+			String key = getString(in);
+			int count = in.get() & 0xFF;
+			List<FishModel> fishies = new ArrayList<>(count);
+			for (int f = 0; f < count; f++)
+				fishies.add(getFish(in));
+			map.put(key, fishies);
+		}
+		return map;
+	}
+
+	private static void putFish(ByteBuffer out, FishModel fish) {
+		String id = fish.getId();
+		int at = id.indexOf(TANK_PREFIX);
+		long fishNumber = -1;
+		long tankNumber = -1;
+		if (id.startsWith(FISH_PREFIX) && at > FISH_PREFIX.length()) {
+			fishNumber = parseNumber(id, FISH_PREFIX.length(), at);
+			tankNumber = parseNumber(id, at + TANK_PREFIX.length(), id.length());
+		}
+		boolean compact = fishNumber >= 0 && tankNumber >= 0;
+
+		out.put((byte) ((fish.isToggled() ? FISH_TOGGLED : 0) | (compact ? FISH_COMPACT_ID : 0)));
+		if (compact) {
+			out.putInt((int) fishNumber).putInt((int) tankNumber);
+		} else {
+			putString(out, id);
+		}
+		out.putInt(fish.getX()).putInt(fish.getY());
+		putDirection(out, fish.getDirection());
+	}
+
+	private static FishModel getFish(ByteBuffer in) {
+		byte flags = in.get();
+		String id = (flags & FISH_COMPACT_ID) != 0
+				? FISH_PREFIX + in.getInt() + TANK_PREFIX + in.getInt()
+				: getString(in);
+		FishModel fish = new FishModel(id, in.getInt(), in.getInt(), getDirection(in));
+		if ((flags & FISH_TOGGLED) != 0)
+			fish.toggle();
+		return fish;
+	}
+
+	/*
+	 * Parses a canonical non-negative decimal int, or returns -1 if the digits would not
+	 * reproduce the same string (leading zeros, signs, overflow).
+	 */
+	private static long parseNumber(String s, int from, int to) {
+		if (from >= to || to - from > 9 || (s.charAt(from) == '0' && to - from > 1))
+			return -1;
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static void putDirection(ByteBuffer out, Direction direction) {
+		out.put((byte) direction.ordinal());
+	}
+
+	private static Direction getDirection(ByteBuffer in) {
+		return Direction.values()[in.get()];
+	}
+
+	private static void putString(ByteBuffer out, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 255)
+			throw new IllegalArgumentException("String too long for codec: " + s);
+		out.put((byte) bytes.length).put(bytes);
+	}
+
+	private static String getString(ByteBuffer in) {
+		byte[] bytes = new byte[in.get() & 0xFF];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void putAddress(ByteBuffer out, InetSocketAddress address) {
+		byte[] ip = address.getAddress().getAddress();
+		out.put((byte) ip.length).put(ip).putShort((short) address.getPort());
+	}
+
+	private static InetSocketAddress getAddress(ByteBuffer in) {
+		byte[] ip = new byte[in.get()];
+		in.get(ip);
+		try {
+			return new InetSocketAddress(InetAddress.getByAddress(ip), in.getShort() & 0xFFFF);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
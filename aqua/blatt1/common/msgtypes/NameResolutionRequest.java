@@ -0,0 +1,19 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Asks the broker for the address of a tank, e.g. the home tank of a fish.
+ */
+@SuppressWarnings("serial")
+public final class NameResolutionRequest implements Serializable {
+	private final String tankId;
+
+	public NameResolutionRequest(String tankId) {
+		this.tankId = tankId;
+	}
+
+	public String getTankId() {
+		return tankId;
+	}
+}
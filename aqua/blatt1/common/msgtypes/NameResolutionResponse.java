@@ -0,0 +1,26 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/*
+ * The address is null if the broker does not know the tank (any more).
+ */
+@SuppressWarnings("serial")
+public final class NameResolutionResponse implements Serializable {
+	private final String tankId;
+	private final InetSocketAddress address;
+
+	public NameResolutionResponse(String tankId, InetSocketAddress address) {
+		this.tankId = tankId;
+		this.address = address;
+	}
+
+	public String getTankId() {
+		return tankId;
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+}
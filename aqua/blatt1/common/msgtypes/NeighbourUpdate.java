@@ -1,22 +1,50 @@
 package aqua.blatt1.common.msgtypes;
 
-import aqua.blatt1.common.Direction;
-
 import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.util.List;
 
+/*
+ * Both neighbours of a tank as of the given membership epoch. The broker sends at most one update
+ * per tank and membership batch; tanks ignore updates older than the newest one they applied.
+ * Epochs only compare within one broker incarnation, a newer incarnation outranks every epoch of
+ * an older one. departed lists the tanks that left the ring in the batch, so unacked handoffs to
+ * them can be redirected without risking duplicates.
+ */
+@SuppressWarnings("serial")
 public class NeighbourUpdate implements Serializable {
-    private final Direction direction;
-    private final InetSocketAddress new_neighbour;
+    private final long incarnation;
+    private final long epoch;
+    private final InetSocketAddress left;
+    private final InetSocketAddress right;
+    private final List<InetSocketAddress> departed;
+
+    public NeighbourUpdate(long incarnation, long epoch, InetSocketAddress left, InetSocketAddress right,
+            List<InetSocketAddress> departed) {
+        this.incarnation = incarnation;
+        this.epoch = epoch;
+        this.left = left;
+        this.right = right;
+        this.departed = departed;
+    }
+
+    public long getIncarnation() {
+        return incarnation;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
 
-    public NeighbourUpdate(Direction direction, InetSocketAddress new_neighbour) {
-        this.direction = direction;
-        this.new_neighbour = new_neighbour;
+    public InetSocketAddress getLeft() {
+        return left;
     }
 
-    public Direction getDirection() {return direction;}
+    public InetSocketAddress getRight() {
+        return right;
+    }
 
-    public InetSocketAddress getNewNeighbour() {
-        return new_neighbour;
+    public List<InetSocketAddress> getDeparted() {
+        return departed;
     }
 }
@@ -0,0 +1,20 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Sent by an overloaded broker that shed a message instead of handling it. Carries the shed
+ * message back, so the sender can retry it later.
+ */
+@SuppressWarnings("serial")
+public final class OverloadNack implements Serializable {
+	private final Serializable payload;
+
+	public OverloadNack(Serializable payload) {
+		this.payload = payload;
+	}
+
+	public Serializable getPayload() {
+		return payload;
+	}
+}
@@ -0,0 +1,32 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * A payload sent over a reliable channel between two tanks. The channel id changes whenever the
+ * sender gives a channel up and starts a new one; sequence numbers start at 1 in every channel.
+ */
+@SuppressWarnings("serial")
+public final class ReliableMessage implements Serializable {
+	private final long channel;
+	private final long sequence;
+	private final Serializable payload;
+
+	public ReliableMessage(long channel, long sequence, Serializable payload) {
+		this.channel = channel;
+		this.sequence = sequence;
+		this.payload = payload;
+	}
+
+	public long getChannel() {
+		return channel;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Serializable getPayload() {
+		return payload;
+	}
+}
@@ -0,0 +1,133 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aqua.blatt1.common.FishModel;
+
+/*
+ * Passed to the left around the ring once a tank has finished its part of the snapshot. Every
+ * tank adds its recorded fishies; when the collector is back at the initiator it holds the
+ * global result.
+ *
+ * The fishies themselves are carried by tank and by incoming channel, leaving out tanks and
+ * channels without any. The collector travels in one datagram, so it carries at most
+ * MAX_RECORDED_FISHIES of them. A tank whose fishies do not fit any more only adds its counts,
+ * which stay exact, and marks the collector as truncated.
+ */
+@SuppressWarnings("serial")
+public final class SnapshotCollector implements Serializable {
+	public static final int MAX_RECORDED_FISHIES = 100;
+
+	private final String snapshotId;
+	private final String initiator;
+	private final int tanks;
+	// fishies recorded in the tanks and on the channels between them
+	private final long fishies;
+	private final long inFlight;
+	// by tank id, and by channel "<sender address>-><tank id>"
+	private final Map<String, List<FishModel>> resident;
+	private final Map<String, List<FishModel>> onChannels;
+	private final boolean truncated;
+
+	public SnapshotCollector(String snapshotId, String initiator) {
+		this(snapshotId, initiator, 0, 0, 0, Map.of(), Map.of(), false);
+	}
+
+	public SnapshotCollector(String snapshotId, String initiator, int tanks, long fishies, long inFlight,
+			Map<String, List<FishModel>> resident, Map<String, List<FishModel>> onChannels, boolean truncated) {
+		this.snapshotId = snapshotId;
+		this.initiator = initiator;
+		this.tanks = tanks;
+		this.fishies = fishies;
+		this.inFlight = inFlight;
+		this.resident = resident;
+		this.onChannels = onChannels;
+		this.truncated = truncated;
+	}
+
+	public String getSnapshotId() {
+		return snapshotId;
+	}
+
+	public String getInitiator() {
+		return initiator;
+	}
+
+	public int getTanks() {
+		return tanks;
+	}
+
+	public long getFishies() {
+		return fishies;
+	}
+
+	public long getInFlight() {
+		return inFlight;
+	}
+
+	/*
+	 * The recorded fishies by tank id.
+	 */
+	public Map<String, List<FishModel>> getResident() {
+		return Collections.unmodifiableMap(resident);
+	}
+
+	/*
+	 * The fishies recorded in flight by channel, named "<sender address>-><tank id>".
+	 */
+	public Map<String, List<FishModel>> getOnChannels() {
+		return Collections.unmodifiableMap(onChannels);
+	}
+
+	/*
+	 * True if some tank only added its counts because its fishies did not fit.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public int getRecordedCount() {
+		int count = 0;
+		for (List<FishModel> list : resident.values())
+			count += list.size();
+		for (List<FishModel> list : onChannels.values())
+			count += list.size();
+		return count;
+	}
+
+	/*
+	 * Returns the collector with the state recorded by one tank added; tankInFlight maps the
+	 * channel names to the fishies recorded on them.
+	 */
+	public SnapshotCollector add(String tankId, List<FishModel> tankFishies,
+			Map<String, List<FishModel>> tankInFlight) {
+		long inFlightCount = 0;
+		for (List<FishModel> list : tankInFlight.values())
+			inFlightCount += list.size();
+		if (getRecordedCount() + tankFishies.size() + inFlightCount > MAX_RECORDED_FISHIES)
+			return new SnapshotCollector(snapshotId, initiator, tanks + 1, fishies + tankFishies.size(),
+					inFlight + inFlightCount, resident, onChannels, true);
+
+		Map<String, List<FishModel>> nextResident = new LinkedHashMap<>(resident);
+		if (!tankFishies.isEmpty())
+			nextResident.put(tankId, new ArrayList<>(tankFishies));
+		Map<String, List<FishModel>> nextOnChannels = new LinkedHashMap<>(onChannels);
+		tankInFlight.forEach((channel, list) -> {
+			if (!list.isEmpty())
+				nextOnChannels.put(channel, new ArrayList<>(list));
+		});
+		return new SnapshotCollector(snapshotId, initiator, tanks + 1, fishies + tankFishies.size(),
+				inFlight + inFlightCount, nextResident, nextOnChannels, truncated);
+	}
+
+	@Override
+	public String toString() {
+		return "Snapshot " + snapshotId + ": " + (fishies + inFlight) + " fishies in " + tanks + " tanks, "
+				+ inFlight + " of them in flight" + (truncated ? " (too many to list all)" : "");
+	}
+}
@@ -0,0 +1,20 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Chandy-Lamport marker. Sent over the reliable channels to both neighbours, so it separates the
+ * handoffs sent before the sender recorded its state from those sent after.
+ */
+@SuppressWarnings("serial")
+public final class SnapshotMarker implements Serializable {
+	private final String snapshotId;
+
+	public SnapshotMarker(String snapshotId) {
+		this.snapshotId = snapshotId;
+	}
+
+	public String getSnapshotId() {
+		return snapshotId;
+	}
+}
@@ -0,0 +1,26 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Asks the tank holding the fish to toggle it. Tanks that do not hold the fish forward the
+ * request along their location references until the hop limit is used up.
+ */
+@SuppressWarnings("serial")
+public final class ToggleRequest implements Serializable {
+	private final String fishId;
+	private final int hopsLeft;
+
+	public ToggleRequest(String fishId, int hopsLeft) {
+		this.fishId = fishId;
+		this.hopsLeft = hopsLeft;
+	}
+
+	public String getFishId() {
+		return fishId;
+	}
+
+	public int getHopsLeft() {
+		return hopsLeft;
+	}
+}
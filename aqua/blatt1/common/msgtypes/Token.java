@@ -2,5 +2,44 @@ package aqua.blatt1.common.msgtypes;
 
 import java.io.Serializable;
 
-public class Token implements Serializable {
+/*
+ * The epoch is raised by the broker whenever it regenerates or rebalances the tokens, so tokens of
+ * an older epoch are stale. The id tells apart the tokens of one epoch (0 unless the broker runs
+ * several tokens) and the sequence counts the handovers of a token within its epoch.
+ */
+@SuppressWarnings("serial")
+public final class Token implements Serializable {
+	private final long epoch;
+	private final int id;
+	private final long sequence;
+
+	public Token(long epoch, int id, long sequence) {
+		this.epoch = epoch;
+		this.id = id;
+		this.sequence = sequence;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/*
+	 * Returns the token to hand over to the next tank.
+	 */
+	public Token next() {
+		return new Token(epoch, id, sequence + 1);
+	}
+
+	@Override
+	public String toString() {
+		return "Token[epoch=" + epoch + ", id=" + id + ", sequence=" + sequence + "]";
+	}
 }
@@ -0,0 +1,29 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Sent by the broker to a tank that reported a stale token, to the last holder of a token it
+ * regenerated, and to all tanks when it respaces all tokens. The tank drops the token with the
+ * given id, or every token with ALL_TOKENS, if it is older than the given epoch.
+ */
+@SuppressWarnings("serial")
+public final class TokenEpoch implements Serializable {
+	public static final int ALL_TOKENS = -1;
+
+	private final long epoch;
+	private final int tokenId;
+
+	public TokenEpoch(long epoch, int tokenId) {
+		this.epoch = epoch;
+		this.tokenId = tokenId;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public int getTokenId() {
+		return tokenId;
+	}
+}
@@ -0,0 +1,31 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Sent by a tank to the broker whenever it accepts a token; renews the broker's token lease.
+ */
+@SuppressWarnings("serial")
+public final class TokenReceived implements Serializable {
+	private final long epoch;
+	private final int tokenId;
+	private final long sequence;
+
+	public TokenReceived(long epoch, int tokenId, long sequence) {
+		this.epoch = epoch;
+		this.tokenId = tokenId;
+		this.sequence = sequence;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public int getTokenId() {
+		return tokenId;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+}